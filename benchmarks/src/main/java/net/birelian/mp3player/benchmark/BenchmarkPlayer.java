@@ -0,0 +1,57 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.benchmark;
+
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.player.NullAudioDevice;
+import net.birelian.mp3player.core.CustomPlayer;
+
+/**
+ * Player writing to a NullAudioDevice, so benchmarks run headless. Exposes
+ * the frame level methods of CustomPlayer.
+ * 
+ * @author birelian
+ * 
+ */
+public class BenchmarkPlayer extends CustomPlayer {
+
+    /**
+     * Constructor
+     * 
+     * @param bufferFrames
+     *            Number of frames decoded ahead of the audio device
+     * @throws JavaLayerException
+     */
+    public BenchmarkPlayer(int bufferFrames) throws JavaLayerException {
+        super(new NullAudioDevice(), bufferFrames);
+    }
+
+    @Override
+    public boolean decodeFrame() throws JavaLayerException {
+        return super.decodeFrame();
+    }
+
+    @Override
+    public boolean skipFrame() throws JavaLayerException {
+        return super.skipFrame();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import net.birelian.mp3player.core.InputSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per frame cost of CustomPlayer.decodeFrame() and skipFrame(). When the
+ * fixture runs out of frames it is loaded again.
+ * 
+ * @author birelian
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+    /** Fixture name */
+    @Param({ "cbr128", "cbr320", "vbr" })
+    private String fixture;
+
+    /** Decode-ahead buffer depth. 0 writes to the device synchronously */
+    @Param({ "0", "16" })
+    private int bufferFrames;
+
+    /** Fixture file */
+    private File file;
+
+    /** Player */
+    private BenchmarkPlayer player;
+
+    /**
+     * Create the fixture and load it
+     * 
+     * @throws Exception
+     */
+    @Setup
+    public void setUp() throws Exception {
+        file = Fixtures.create(fixture);
+        player = new BenchmarkPlayer(bufferFrames);
+        player.load(InputSource.open(file));
+    }
+
+    /**
+     * Release the player
+     */
+    @TearDown
+    public void tearDown() {
+        player.close();
+    }
+
+    /**
+     * Decode one frame
+     * 
+     * @return Decoded flag
+     * @throws Exception
+     */
+    @Benchmark
+    public boolean decodeFrame() throws Exception {
+        boolean decoded = player.decodeFrame();
+        if (!decoded)
+            player.load(InputSource.open(file));
+        return decoded;
+    }
+
+    /**
+     * Skip one frame
+     * 
+     * @return Skipped flag
+     * @throws Exception
+     */
+    @Benchmark
+    public boolean skipFrame() throws Exception {
+        boolean skipped = player.skipFrame();
+        if (!skipped)
+            player.load(InputSource.open(file));
+        return skipped;
+    }
+}
\ No newline at end of file
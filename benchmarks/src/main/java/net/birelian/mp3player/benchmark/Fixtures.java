@@ -0,0 +1,248 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Synthetic mp3 files used by the benchmarks. Every file is a 44.1kHz stereo
+ * MPEG-1 Layer III stream with an ID3v2 tag. Frames carry silence, but the
+ * decoder still runs the whole synthesis for each of them.
+ * 
+ * Available fixtures: cbr128, cbr192, cbr320 and vbr (128 to 320 kbps with a
+ * Xing header).
+ * 
+ * @author birelian
+ * 
+ */
+public final class Fixtures {
+    /** Fixture length in seconds */
+    public static final int LENGTH = 300;
+
+    /** Samples per MPEG-1 Layer III frame */
+    private static final int SAMPLES_PER_FRAME = 1152;
+
+    /** Sample rate */
+    private static final int SAMPLE_RATE = 44100;
+
+    /** Bit rate indexes from 128 to 320 kbps */
+    private static final int[] VBR_INDEXES = { 9, 10, 11, 12, 13, 14 };
+
+    /** Bit rates of the indexes above, in kbps */
+    private static final int[] VBR_BITRATES = { 128, 160, 192, 224, 256, 320 };
+
+    /** Side information length, stereo */
+    private static final int SIDE_INFO = 32;
+
+    /**
+     * Not to be instantiated
+     */
+    private Fixtures() {
+    }
+
+    /**
+     * Write a fixture to a temporary file
+     * 
+     * @param name
+     *            Fixture name
+     * @return Fixture file. Deleted on exit
+     * @throws IOException
+     */
+    public static File create(String name) throws IOException {
+        File file = File.createTempFile("wwtmp3-" + name + "-", ".mp3");
+        file.deleteOnExit();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            out.write(id3v2("Benchmark " + name, "WWT-Mp3 player"));
+            int frames = LENGTH * SAMPLE_RATE / SAMPLES_PER_FRAME;
+            if (name.equals("vbr"))
+                writeVbr(out, frames);
+            else if (name.startsWith("cbr"))
+                writeCbr(out, frames, Integer.parseInt(name.substring(3)));
+            else
+                throw new IllegalArgumentException("Unknown fixture " + name);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Write a constant bit rate stream
+     * 
+     * @param out
+     *            Output
+     * @param frames
+     *            Number of frames
+     * @param bitrate
+     *            Bit rate in kbps
+     * @throws IOException
+     */
+    private static void writeCbr(OutputStream out, int frames, int bitrate)
+            throws IOException {
+        int index = -1;
+        for (int i = 0; i < VBR_BITRATES.length; i++)
+            if (VBR_BITRATES[i] == bitrate)
+                index = VBR_INDEXES[i];
+        if (index == -1)
+            throw new IllegalArgumentException("Unsupported bit rate "
+                    + bitrate);
+        int rest = 0;
+        for (int i = 0; i < frames; i++) {
+            // Padding keeps the average bit rate exact
+            rest += 144 * bitrate * 1000 % SAMPLE_RATE;
+            boolean padding = rest >= SAMPLE_RATE;
+            if (padding)
+                rest -= SAMPLE_RATE;
+            out.write(frame(index, bitrate, padding));
+        }
+    }
+
+    /**
+     * Write a variable bit rate stream, starting with a Xing header frame
+     * 
+     * @param out
+     *            Output
+     * @param frames
+     *            Number of audio frames
+     * @throws IOException
+     */
+    private static void writeVbr(OutputStream out, int frames)
+            throws IOException {
+        Random random = new Random(42);
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        for (int i = 0; i < frames; i++) {
+            int pick = random.nextInt(VBR_INDEXES.length);
+            audio.write(frame(VBR_INDEXES[pick], VBR_BITRATES[pick], false));
+        }
+        byte[] xing = frame(VBR_INDEXES[0], VBR_BITRATES[0], false);
+        int offset = 4 + SIDE_INFO;
+        xing[offset++] = 'X';
+        xing[offset++] = 'i';
+        xing[offset++] = 'n';
+        xing[offset++] = 'g';
+        // Flags: frames and bytes fields present
+        offset = putInt(xing, offset, 3);
+        offset = putInt(xing, offset, frames);
+        putInt(xing, offset, xing.length + audio.size());
+        out.write(xing);
+        audio.writeTo(out);
+    }
+
+    /**
+     * Build a silent frame
+     * 
+     * @param index
+     *            Bit rate index
+     * @param bitrate
+     *            Bit rate in kbps
+     * @param padding
+     *            Padding bit
+     * @return Frame bytes
+     */
+    private static byte[] frame(int index, int bitrate, boolean padding) {
+        byte[] frame = new byte[144 * bitrate * 1000 / SAMPLE_RATE
+                + (padding ? 1 : 0)];
+        // MPEG-1, Layer III, no CRC, 44.1kHz, stereo
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xFB;
+        frame[2] = (byte) ((index << 4) | (padding ? 2 : 0));
+        frame[3] = 0;
+        return frame;
+    }
+
+    /**
+     * Build an ID3v2.3 tag with title and artist
+     * 
+     * @param title
+     *            Title
+     * @param artist
+     *            Artist
+     * @return Tag bytes
+     * @throws IOException
+     */
+    private static byte[] id3v2(String title, String artist)
+            throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        textFrame(frames, "TIT2", title);
+        textFrame(frames, "TPE1", artist);
+        int size = frames.size();
+        ByteArrayOutputStream tag = new ByteArrayOutputStream();
+        tag.write(new byte[] { 'I', 'D', '3', 3, 0, 0 });
+        // Synchsafe size
+        tag.write((size >> 21) & 0x7F);
+        tag.write((size >> 14) & 0x7F);
+        tag.write((size >> 7) & 0x7F);
+        tag.write(size & 0x7F);
+        frames.writeTo(tag);
+        return tag.toByteArray();
+    }
+
+    /**
+     * Write an ID3v2.3 ISO-8859-1 text frame
+     * 
+     * @param out
+     *            Output
+     * @param id
+     *            Frame id
+     * @param text
+     *            Frame text
+     * @throws IOException
+     */
+    private static void textFrame(ByteArrayOutputStream out, String id,
+            String text) throws IOException {
+        byte[] value = text.getBytes("ISO-8859-1");
+        byte[] header = new byte[10];
+        int i = 0;
+        for (char c : id.toCharArray())
+            header[i++] = (byte) c;
+        putInt(header, 4, value.length + 1);
+        out.write(header);
+        out.write(0);
+        out.write(value);
+    }
+
+    /**
+     * Write a big-endian integer
+     * 
+     * @param bytes
+     *            Destination
+     * @param offset
+     *            Offset
+     * @param value
+     *            Value
+     * @return Offset after the integer
+     */
+    private static int putInt(byte[] bytes, int offset, int value) {
+        bytes[offset++] = (byte) (value >>> 24);
+        bytes[offset++] = (byte) (value >>> 16);
+        bytes[offset++] = (byte) (value >>> 8);
+        bytes[offset++] = (byte) value;
+        return offset;
+    }
+}
\ No newline at end of file
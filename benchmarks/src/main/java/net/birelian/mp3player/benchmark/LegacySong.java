@@ -0,0 +1,70 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.benchmark;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Song layout before numeric fields and shared strings, kept as the
+ * baseline of {@link SongFootprintBenchmark}.
+ * 
+ * @author birelian
+ * 
+ */
+public class LegacySong {
+    /** Logger */
+    final Logger logger = LogManager.getLogger(LegacySong.class);
+
+    /** Absolute path */
+    String filePath;
+
+    /** Song title */
+    String title;
+
+    /** Song artist */
+    String artist;
+
+    /** Song album */
+    String album;
+
+    /** Song bit rate */
+    String bitRate;
+
+    /** Song sample rate */
+    String sampleRate;
+
+    /** Song channels */
+    String channels;
+
+    /** Song format */
+    String format;
+
+    /** Number of frames */
+    long frames;
+
+    /** Song length measured in seconds */
+    int length;
+
+    /** Frame offsets */
+    Object frameIndex;
+}
\ No newline at end of file
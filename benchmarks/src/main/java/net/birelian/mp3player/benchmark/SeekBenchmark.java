@@ -0,0 +1,133 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import net.birelian.mp3player.core.FrameIndex;
+import net.birelian.mp3player.core.InputSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of seeking to 90% of a song: skipping frame by frame with
+ * CustomPlayer.goToFrame(), going straight to the offset of a FrameIndex,
+ * and building the index itself.
+ * 
+ * @author birelian
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SeekBenchmark {
+    /** Fixture name */
+    @Param({ "cbr128", "cbr320", "vbr" })
+    private String fixture;
+
+    /** Fixture file */
+    private File file;
+
+    /** Frame index of the fixture */
+    private FrameIndex frameIndex;
+
+    /** Target frame */
+    private int target;
+
+    /** Player */
+    private BenchmarkPlayer player;
+
+    /**
+     * Create the fixture and its index
+     * 
+     * @throws Exception
+     */
+    @Setup
+    public void setUp() throws Exception {
+        file = Fixtures.create(fixture);
+        frameIndex = new FrameIndex(file);
+        target = frameIndex.size() * 9 / 10;
+        player = new BenchmarkPlayer(0);
+    }
+
+    /**
+     * Release the player
+     */
+    @TearDown
+    public void tearDown() {
+        player.close();
+    }
+
+    /**
+     * Seek skipping every previous frame
+     * 
+     * @return Frame reached
+     * @throws Exception
+     */
+    @Benchmark
+    public long goToFrame() throws Exception {
+        player.load(InputSource.open(file));
+        player.goToFrame(target);
+        return player.getFrame();
+    }
+
+    /**
+     * Seek using the frame index
+     * 
+     * @return Frame reached
+     * @throws Exception
+     */
+    @Benchmark
+    public long indexedSeek() throws Exception {
+        InputSource source = InputSource.open(file);
+        source.seek(frameIndex.getOffset(target));
+        player.load(source);
+        player.setFrame(target);
+        return player.getFrame();
+    }
+
+    /**
+     * Build the frame index
+     * 
+     * @return Indexed frames
+     * @throws Exception
+     */
+    @Benchmark
+    public int buildFrameIndex() throws Exception {
+        return new FrameIndex(file).size();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.birelian.mp3player.core.Song;
+import net.birelian.mp3player.core.TrackStore;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Heap used by a library of songs, with the current Song layout, with the
+ * previous one (formatted strings, no shared strings) and in a columnar
+ * {@link TrackStore}. Metadata looks
+ * like a real library: 5000 artists, 4 albums each, 12 songs per album.
+ * 
+ * The bytesPerTrack counter is the result; the time is just building the
+ * library.
+ * 
+ * @author birelian
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class SongFootprintBenchmark {
+    /** Number of songs */
+    @Param({ "100000", "1000000" })
+    private int tracks;
+
+    /** Song layout: compact, legacy or columnar */
+    @Param({ "compact", "legacy", "columnar" })
+    private String layout;
+
+    /**
+     * Measured footprint
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        /** Heap bytes per song */
+        public long bytesPerTrack;
+    }
+
+    /**
+     * Build a library and measure the heap it uses
+     * 
+     * @param footprint
+     *            Measured footprint
+     * @return Library
+     */
+    @Benchmark
+    public Object[] build(Footprint footprint) {
+        long before = usedMemory();
+        if (layout.equals("columnar")) {
+            TrackStore store = new TrackStore(false);
+            for (int i = 0; i < tracks; i++)
+                store.add(compact(i));
+            footprint.bytesPerTrack = (usedMemory() - before) / tracks;
+            return new Object[] { store };
+        }
+        Object[] library = new Object[tracks];
+        for (int i = 0; i < tracks; i++)
+            library[i] = layout.equals("compact") ? compact(i) : legacy(i);
+        long after = usedMemory();
+        footprint.bytesPerTrack = (after - before) / tracks;
+        return library;
+    }
+
+    /**
+     * Build a song with the current layout
+     * 
+     * @param i
+     *            Song number
+     * @return Song
+     */
+    private Song compact(int i) {
+        Song song = new Song();
+        song.setFilePath(path(i));
+        song.setTitle("Title " + i);
+        song.setArtist("Artist " + i / 48);
+        song.setAlbum("Album " + i / 12);
+        song.setBitRate(128 + (i % 3) * 64);
+        song.setSampleRate(44100);
+        song.setChannels(new String("Joint Stereo"));
+        song.setFormat(new String("MPEG-1 Layer 3"));
+        song.setFrames(9000 + i % 3000);
+        song.setLength(240 + i % 60);
+        return song;
+    }
+
+    /**
+     * Build a song with the previous layout
+     * 
+     * @param i
+     *            Song number
+     * @return Song
+     */
+    private LegacySong legacy(int i) {
+        LegacySong song = new LegacySong();
+        song.filePath = path(i);
+        song.title = "Title " + i;
+        song.artist = "Artist " + i / 48;
+        song.album = "Album " + i / 12;
+        song.bitRate = (128 + (i % 3) * 64) + "kbps";
+        song.sampleRate = 44100 + "Hz";
+        song.channels = new String("Joint Stereo");
+        song.format = new String("MPEG-1 Layer 3");
+        song.frames = 9000 + i % 3000;
+        song.length = 240 + i % 60;
+        return song;
+    }
+
+    /**
+     * Build a song path
+     * 
+     * @param i
+     *            Song number
+     * @return Path
+     */
+    private String path(int i) {
+        return "/music/Artist " + i / 48 + "/Album " + i / 12 + "/" + i
+                + ".mp3";
+    }
+
+    /**
+     * Get the heap in use after garbage collection
+     * 
+     * @return Used bytes
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
\ No newline at end of file
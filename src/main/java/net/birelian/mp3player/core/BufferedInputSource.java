@@ -0,0 +1,128 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Input source reading a file through a buffer. Used for files too big to be
+ * mapped. Seeking inside the buffer doesn't touch the file.
+ * 
+ * @author birelian
+ * 
+ */
+public class BufferedInputSource extends InputSource {
+    /** Buffer size */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Opened file */
+    private final RandomAccessFile raf;
+
+    /** File channel */
+    private final FileChannel channel;
+
+    /** File length */
+    private final long length;
+
+    /** Read buffer */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** File position of the first byte of the buffer */
+    private long bufferStart = 0;
+
+    /**
+     * Constructor
+     * 
+     * @param file
+     *            File to be read
+     * @throws IOException
+     */
+    public BufferedInputSource(File file) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        length = raf.length();
+        buffer.limit(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill())
+            return -1;
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!buffer.hasRemaining() && !fill())
+            return -1;
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long position() {
+        return bufferStart + buffer.position();
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        position = Math.min(position, length);
+        if (position >= bufferStart && position <= bufferStart + buffer.limit())
+            // Still inside the buffer
+            buffer.position((int) (position - bufferStart));
+        else {
+            bufferStart = position;
+            buffer.limit(0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /**
+     * Load the buffer with the bytes following the current position
+     * 
+     * @return false at the end of the file
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        bufferStart = position();
+        buffer.clear();
+        int read = channel.read(buffer, bufferStart);
+        buffer.flip();
+        return read > 0;
+    }
+}
\ No newline at end of file
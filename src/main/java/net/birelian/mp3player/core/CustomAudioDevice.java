@@ -0,0 +1,117 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.player.AudioDeviceBase;
+
+/**
+ * Based in JavaZoom JavaSoundAudioDevice class. The line is kept open between
+ * songs and the audio waiting in it can be discarded, so seeking doesn't need
+ * to close and open the device again.
+ * 
+ * @author birelian
+ * 
+ */
+public class CustomAudioDevice extends AudioDeviceBase {
+    /** Output line. Opened on first write */
+    private SourceDataLine line;
+
+    /** Conversion buffer */
+    private byte[] bytes = new byte[4096];
+
+    @Override
+    protected void writeImpl(short[] samples, int offs, int len)
+            throws JavaLayerException {
+        if (line == null)
+            openLine();
+        int length = len * 2;
+        if (bytes.length < length)
+            bytes = new byte[length];
+        // 16 bits signed, little endian
+        for (int i = 0, j = 0; i < len; i++) {
+            short sample = samples[offs + i];
+            bytes[j++] = (byte) sample;
+            bytes[j++] = (byte) (sample >>> 8);
+        }
+        line.write(bytes, 0, length);
+    }
+
+    @Override
+    protected void closeImpl() {
+        if (line != null) {
+            line.close();
+            line = null;
+        }
+    }
+
+    @Override
+    protected void flushImpl() {
+        if (line != null)
+            line.drain();
+    }
+
+    @Override
+    public int getPosition() {
+        SourceDataLine current = line;
+        if (current == null)
+            return 0;
+        return (int) (current.getMicrosecondPosition() / 1000);
+    }
+
+    /**
+     * Discard the audio written to the line and not played yet
+     */
+    public void discard() {
+        SourceDataLine current = line;
+        if (current != null)
+            current.flush();
+    }
+
+    /**
+     * Open the line using the decoder output format
+     * 
+     * @throws JavaLayerException
+     */
+    private void openLine() throws JavaLayerException {
+        Decoder decoder = getDecoder();
+        AudioFormat format = new AudioFormat(decoder.getOutputFrequency(), 16,
+                decoder.getOutputChannels(), true, false);
+        try {
+            line = (SourceDataLine) AudioSystem.getLine(new DataLine.Info(
+                    SourceDataLine.class, format));
+            line.open(format);
+            line.start();
+        } catch (LineUnavailableException e) {
+            throw new JavaLayerException("Cannot open audio line", e);
+        } catch (IllegalArgumentException e) {
+            throw new JavaLayerException("Cannot open audio line", e);
+        }
+    }
+}
\ No newline at end of file
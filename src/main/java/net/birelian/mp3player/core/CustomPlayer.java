@@ -21,7 +21,9 @@
 
 package net.birelian.mp3player.core;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.locks.LockSupport;
 
 import javazoom.jl.decoder.Bitstream;
 import javazoom.jl.decoder.BitstreamException;
@@ -30,31 +32,52 @@ import javazoom.jl.decoder.Header;
 import javazoom.jl.decoder.JavaLayerException;
 import javazoom.jl.decoder.SampleBuffer;
 import javazoom.jl.player.AudioDevice;
-import javazoom.jl.player.FactoryRegistry;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * Based in JavaZoom Player class. Just added some stuff.
  * 
  * Original class available at JavaZoom website.
  * 
+ * The audio device lives as long as the player. Songs are changed with
+ * {@link #load(InputStream)}, that replaces the bitstream and its decoder
+ * (JavaZoom decoders are bound to the first bitstream they decode).
+ * 
  * @author birelian
  * 
  */
 public class CustomPlayer {
+    /** Default number of frames decoded ahead of the audio device */
+    public static final int DEFAULT_BUFFER_FRAMES = 16;
+
+    /** Logger */
+    private final Logger logger = LogManager.getLogger(CustomPlayer.class);
+
     /** The current frame number */
     private long frame = 0;
 
     /** The MPEG audio bitstream */
     private Bitstream bitstream;
 
+    /** Stream the bitstream reads from */
+    private InputStream stream;
+
+    /** First header of the bitstream, already read by load() */
+    private Header pendingHeader;
+
     /** The MPEG audio decoder */
     private Decoder decoder;
 
+    /** Decoder the audio device was opened with. Sets the output format */
+    private Decoder deviceDecoder;
+
     /** The AudioDevice the audio samples are written to */
     private AudioDevice audio;
 
     /** Has the player been closed? */
-    private boolean closed = false;
+    private volatile boolean closed = false;
 
     /** Has the player played back all frames from the stream? */
     private boolean complete = false;
@@ -62,6 +85,79 @@ public class CustomPlayer {
     /** Last known position */
     private int lastPosition = 0;
 
+    /** Decoded frames waiting to be written to the audio device */
+    private PcmRingBuffer buffer;
+
+    /** Thread writing buffered frames to the audio device */
+    private Thread outputThread;
+
+    /** Is the output paused? */
+    private volatile boolean paused = false;
+
+    /** Are frames being decoded into the buffer? */
+    private volatile boolean streaming = false;
+
+    /** Error writing to the audio device */
+    private volatile JavaLayerException outputError;
+
+    /** Bitstream to be played when the current one is over */
+    private Bitstream nextBitstream;
+
+    /** Stream the next bitstream reads from */
+    private InputStream nextStream;
+
+    /** First header of the next bitstream, already read */
+    private Header nextHeader;
+
+    /** Decoder for the next bitstream */
+    private Decoder nextDecoder;
+
+    /** Has the player moved on to the next bitstream? */
+    private boolean trackChanged = false;
+
+    /** Duration of a frame of the current bitstream, in milliseconds */
+    private float frameMillis = 26;
+
+    /** Stop the batch being played after the current frame */
+    private volatile boolean batchEnd = false;
+
+    /**
+     * Creates a new Player instance with nothing to play.
+     * 
+     * @param device
+     *            Audio device. If null, a CustomAudioDevice is used
+     * @param bufferFrames
+     *            Number of frames decoded ahead of the audio device. With 0,
+     *            frames are written to the device as soon as they are decoded
+     * @throws JavaLayerException
+     */
+    public CustomPlayer(AudioDevice device, int bufferFrames)
+            throws JavaLayerException {
+        decoder = new Decoder();
+        deviceDecoder = decoder;
+
+        if (device != null)
+            audio = device;
+        else
+            audio = new CustomAudioDevice();
+        audio.open(decoder);
+
+        // Decode-ahead stage
+        if (bufferFrames > 0) {
+            buffer = new PcmRingBuffer(bufferFrames,
+                    decoder.getOutputBlockSize());
+            final Runnable outputRunnable = new Runnable() {
+                public void run() {
+                    output();
+                }
+            };
+            outputThread = new Thread(outputRunnable, "Audio output");
+            outputThread.setDaemon(true);
+            outputThread.setPriority(Thread.MAX_PRIORITY);
+            outputThread.start();
+        }
+    }
+
     /**
      * Creates a new Player instance.
      * 
@@ -84,25 +180,232 @@ public class CustomPlayer {
      */
     public CustomPlayer(InputStream stream, AudioDevice device)
             throws JavaLayerException {
+        this(stream, device, DEFAULT_BUFFER_FRAMES);
+    }
+
+    /**
+     * Creates a new Player instance.
+     * 
+     * @param stream
+     *            Stream to be played
+     * @param device
+     *            Audio device
+     * @param bufferFrames
+     *            Number of frames decoded ahead of the audio device
+     * @throws JavaLayerException
+     */
+    public CustomPlayer(InputStream stream, AudioDevice device,
+            int bufferFrames) throws JavaLayerException {
+        this(device, bufferFrames);
+        load(stream);
+    }
+
+    /**
+     * Replace the stream being played. Frames of the previous stream not
+     * played yet are discarded. The audio device is kept open, unless the new
+     * stream has a different sample rate or channels.
+     * 
+     * @param stream
+     *            Stream to be played
+     * @throws JavaLayerException
+     */
+    public void load(InputStream stream) throws JavaLayerException {
+        Bitstream next = new Bitstream(stream);
+        Header h = next.readFrame();
+        unload();
+        bitstream = next;
+        this.stream = stream;
+        pendingHeader = h;
+        frame = 0;
+        outputError = null;
+        if (h != null)
+            frameMillis = h.ms_per_frame();
+        decoder = new Decoder();
+        synchronized (this) {
+            complete = false;
+            if (h != null && !isCompatible(h) && audio != null) {
+                // The device output format comes from its decoder
+                if (deviceDecoder.getOutputFrequency() != 0)
+                    logger.info("Audio format change. Reopening audio device");
+                audio.close();
+                audio.open(decoder);
+                deviceDecoder = decoder;
+            }
+        }
+    }
+
+    /**
+     * Close the stream being played, keeping the decoder and the audio
+     * device.
+     */
+    public void unload() {
+        discard();
+        discardNext();
+        if (bitstream != null) {
+            try {
+                bitstream.close();
+            } catch (BitstreamException ex) {
+            }
+            bitstream = null;
+            stream = null;
+            pendingHeader = null;
+        }
+    }
+
+    /**
+     * Go to a frame of the stream being played, without opening it again.
+     * Frames not played yet, and the queued stream, are discarded.
+     * 
+     * @param offset
+     *            Byte offset of the frame
+     * @param frameNumber
+     *            Frame number
+     * @return true if done. False if the stream can't seek
+     * @throws JavaLayerException
+     */
+    public boolean seek(long offset, long frameNumber)
+            throws JavaLayerException {
+        if (!(stream instanceof InputSource))
+            return false;
+        discard();
+        discardNext();
+        try {
+            ((InputSource) stream).seek(offset);
+        } catch (IOException e) {
+            throw new JavaLayerException("Error seeking", e);
+        }
+        // Closing the old bitstream would close the stream too
         bitstream = new Bitstream(stream);
+        pendingHeader = bitstream.readFrame();
+        frame = frameNumber;
+        outputError = null;
+        // Main data of the frames skipped is gone
         decoder = new Decoder();
+        synchronized (this) {
+            complete = false;
+        }
+        return true;
+    }
 
-        if (device != null)
-            audio = device;
-        else {
-            FactoryRegistry r = FactoryRegistry.systemRegistry();
-            audio = r.createAudioDevice();
+    /**
+     * Discard decoded audio not played yet and resume the output if paused.
+     */
+    public void discard() {
+        streaming = false;
+        batchEnd = true;
+        if (buffer != null)
+            buffer.clear();
+        setPaused(false);
+        synchronized (this) {
+            if (audio instanceof CustomAudioDevice)
+                ((CustomAudioDevice) audio).discard();
         }
-        audio.open(decoder);
     }
 
     /**
-     * Get current frame
+     * Get current frame. When decoding ahead, frames still waiting in the
+     * buffer are not counted.
      * 
      * @return Current frame
      */
     public long getFrame() {
-        return frame;
+        PcmRingBuffer pending = buffer;
+        if (pending == null)
+            return frame;
+        return Math.max(0, frame - pending.size());
+    }
+
+    /**
+     * Pause or resume the output. Decoded frames stay in the buffer.
+     * 
+     * @param paused
+     *            true for pausing, false for resuming
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        if (!paused && outputThread != null)
+            LockSupport.unpark(outputThread);
+    }
+
+    /**
+     * Queue a stream to be played right after the current one, using the same
+     * decoder and audio device. Its first frame header is read now, so the
+     * switch doesn't need any extra work.
+     * 
+     * @param stream
+     *            Next stream
+     * @return true if queued. False if the stream has no frames or its
+     *         sample rate or channels don't match the ones being played
+     * @throws JavaLayerException
+     */
+    public boolean queue(InputStream stream) throws JavaLayerException {
+        Bitstream next = new Bitstream(stream);
+        Header h = next.readFrame();
+        if (h == null || !isCompatible(h)) {
+            next.close();
+            return false;
+        }
+        discardNext();
+        nextBitstream = next;
+        nextStream = stream;
+        nextHeader = h;
+        nextDecoder = new Decoder();
+        return true;
+    }
+
+    /**
+     * Check if the player has moved on to the queued stream. The check
+     * resets the flag.
+     * 
+     * @return true if the queued stream is now being played
+     */
+    public boolean consumeTrackChange() {
+        boolean changed = trackChanged;
+        trackChanged = false;
+        return changed;
+    }
+
+    /**
+     * Get the number of frames worth playing in one batch: as many as fit in
+     * the free part of the buffer, and no more than a given time of audio.
+     * 
+     * @param maxMillis
+     *            Maximum audio time of the batch, in milliseconds
+     * @return Number of frames, at least 1
+     */
+    public int getBatchSize(int maxMillis) {
+        int frames = (int) (maxMillis / frameMillis);
+        PcmRingBuffer pending = buffer;
+        if (pending != null)
+            frames = Math.min(frames, pending.getDepth() - pending.size());
+        return Math.max(1, frames);
+    }
+
+    /**
+     * End the batch being played after the current frame, so the caller
+     * gets control back. If no batch is being played, the next one is
+     * empty.
+     */
+    public void endBatch() {
+        batchEnd = true;
+    }
+
+    /**
+     * Get the number of times the audio device has run out of decoded frames
+     * 
+     * @return Buffer underruns
+     */
+    public long getUnderruns() {
+        return buffer != null ? buffer.getUnderruns() : 0;
+    }
+
+    /**
+     * Get the number of times the decoder has waited for the audio device
+     * 
+     * @return Buffer overruns
+     */
+    public long getOverruns() {
+        return buffer != null ? buffer.getOverruns() : 0;
     }
 
     /**
@@ -115,7 +418,9 @@ public class CustomPlayer {
     }
 
     /**
-     * Plays a number of MPEG audio frames.
+     * Plays a number of MPEG audio frames. The batch ends earlier if
+     * {@link #endBatch()} or {@link #discard()} are called, or when the
+     * player moves on to the queued stream.
      * 
      * @param frames
      *            The number of frames to play.
@@ -125,19 +430,24 @@ public class CustomPlayer {
     public boolean play(int frames) throws JavaLayerException {
         boolean ret = true;
 
-        while (frames-- > 0 && ret) {
+        while (frames-- > 0 && ret && !batchEnd) {
             ret = decodeFrame();
             // Update current frame
             frame++;
+            if (trackChanged)
+                break;
         }
+        batchEnd = false;
         if (!ret) {
             // Last frame, ensure all data flushed to the audio device.
             AudioDevice out = audio;
             if (out != null) {
+                if (buffer != null)
+                    buffer.drain();
+                streaming = false;
                 out.flush();
                 synchronized (this) {
                     complete = (!closed);
-                    close();
                 }
             }
         }
@@ -146,23 +456,62 @@ public class CustomPlayer {
 
     /**
      * Closes this player. Any audio currently playing is stopped immediately.
+     * The audio device is released.
      */
     public synchronized void close() {
         AudioDevice out = audio;
         if (out != null) {
             closed = true;
             audio = null;
+            if (buffer != null) {
+                buffer.close();
+                LockSupport.unpark(outputThread);
+                logger.info("Buffer underruns: " + buffer.getUnderruns()
+                        + ", overruns: " + buffer.getOverruns());
+            }
             // This may fail, so ensure object state is set up before
             // calling this method.
             out.close();
             lastPosition = out.getPosition();
+            if (bitstream != null)
+                try {
+                    bitstream.close();
+                } catch (BitstreamException ex) {
+                }
+            discardNext();
+        }
+    }
+
+    /**
+     * Close the queued stream, if any, so the current one is the last
+     */
+    public void discardNext() {
+        if (nextBitstream != null) {
             try {
-                bitstream.close();
+                nextBitstream.close();
             } catch (BitstreamException ex) {
             }
+            nextBitstream = null;
+            nextStream = null;
+            nextHeader = null;
+            nextDecoder = null;
         }
     }
 
+    /**
+     * Check if a stream can be played without opening the audio device again
+     * 
+     * @param h
+     *            First header of the stream
+     * @return true if sample rate and channels match the device output
+     */
+    private boolean isCompatible(Header h) {
+        int channels = h.mode() == Header.SINGLE_CHANNEL ? 1 : 2;
+        // A device whose decoder never decoded anything has no format yet
+        return h.frequency() == deviceDecoder.getOutputFrequency()
+                && channels == deviceDecoder.getOutputChannels();
+    }
+
     /**
      * Returns the completed status of this player.
      * 
@@ -187,6 +536,21 @@ public class CustomPlayer {
         return position;
     }
 
+    /**
+     * Read the next frame header
+     * 
+     * @return Header, or null at the end of the bitstream
+     * @throws JavaLayerException
+     */
+    private Header readFrame() throws JavaLayerException {
+        Header h = pendingHeader;
+        if (h != null) {
+            pendingHeader = null;
+            return h;
+        }
+        return bitstream.readFrame();
+    }
+
     /**
      * Decodes a single frame.
      * 
@@ -195,21 +559,45 @@ public class CustomPlayer {
     protected boolean decodeFrame() throws JavaLayerException {
         try {
             AudioDevice out = audio;
-            if (out == null)
-                return false;
-            Header h = bitstream.readFrame();
-            if (h == null)
+            if (out == null || bitstream == null)
                 return false;
+            if (outputError != null)
+                throw outputError;
+            Header h = readFrame();
+            if (h == null) {
+                if (nextBitstream == null)
+                    return false;
+                // Move on to the queued stream without leaving the device
+                bitstream.close();
+                bitstream = nextBitstream;
+                stream = nextStream;
+                h = nextHeader;
+                decoder = nextDecoder;
+                nextBitstream = null;
+                nextStream = null;
+                nextHeader = null;
+                nextDecoder = null;
+                frame = 0;
+                frameMillis = h.ms_per_frame();
+                trackChanged = true;
+            }
 
             // Sample buffer set when decoder constructed
             SampleBuffer output = (SampleBuffer) decoder.decodeFrame(h,
                     bitstream);
 
-            synchronized (this) {
-                out = audio;
-                if (out != null)
-                    out.write(output.getBuffer(), 0, output.getBufferLength());
-            }
+            if (buffer != null) {
+                // Decoding ahead. The output thread writes it
+                if (!buffer.write(output.getBuffer(), output.getBufferLength()))
+                    return false;
+                streaming = true;
+            } else
+                synchronized (this) {
+                    out = audio;
+                    if (out != null)
+                        out.write(output.getBuffer(), 0,
+                                output.getBufferLength());
+                }
             bitstream.closeFrame();
         } catch (RuntimeException ex) {
             throw new JavaLayerException("Exception decoding audio frame", ex);
@@ -217,6 +605,34 @@ public class CustomPlayer {
         return true;
     }
 
+    /**
+     * Write buffered frames to the audio device until the player is closed.
+     */
+    private void output() {
+        int slot;
+        while ((slot = buffer.take(streaming && !paused)) != -1) {
+            // Keep the frame while paused
+            while (paused && !closed)
+                LockSupport.park(this);
+            synchronized (this) {
+                AudioDevice out = audio;
+                if (out == null)
+                    return;
+                // After an error, frames are dropped until the next load
+                if (outputError == null)
+                    try {
+                        out.write(buffer.getSamples(slot), 0,
+                                buffer.getLength(slot));
+                    } catch (JavaLayerException e) {
+                        logger.error("Error writing to the audio device");
+                        e.printStackTrace();
+                        outputError = e;
+                    }
+            }
+            buffer.release();
+        }
+    }
+
     /**
      * Skip a single frame. I just brought this method from JavaZoom
      * AdvancedPlayer
@@ -225,7 +641,7 @@ public class CustomPlayer {
      * @throws JavaLayerException
      */
     protected boolean skipFrame() throws JavaLayerException {
-        Header h = bitstream.readFrame();
+        Header h = readFrame();
         if (h == null)
             return false;
         bitstream.closeFrame();
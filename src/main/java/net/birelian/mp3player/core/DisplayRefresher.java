@@ -0,0 +1,181 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.awt.EventQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.birelian.mp3player.ui.MainWindow;
+
+/**
+ * Refreshes the dynamic display information (elapsed time, progress, moving
+ * title) at a fixed rate, only while playing and while the main window can
+ * be seen. One scheduler thread is shared by every song.
+ * 
+ * Refresh requests are coalesced: there is never more than one update
+ * waiting in the Swing event queue.
+ * 
+ * @author birelian
+ * 
+ */
+public class DisplayRefresher {
+    /** Default refresh period */
+    public static final int DEFAULT_REFRESH_MILLIS = 500;
+
+    /** Scheduler thread */
+    private final ScheduledExecutorService scheduler;
+
+    /** Player manager */
+    private final PlayerManager playerManager;
+
+    /** Refresh period, in milliseconds */
+    private int refreshMillis = DEFAULT_REFRESH_MILLIS;
+
+    /** Is the player playing? */
+    private boolean playing = false;
+
+    /** Can the main window be seen? */
+    private boolean visible = true;
+
+    /** Periodic refresh, while running */
+    private ScheduledFuture<?> task;
+
+    /** Is there an update waiting in the event queue? */
+    private final AtomicBoolean updatePending = new AtomicBoolean();
+
+    /** Periodic refresh */
+    private final Runnable refreshRunnable = new Runnable() {
+        public void run() {
+            refresh();
+        }
+    };
+
+    /** Display update. Runs in the event dispatch thread */
+    private final Runnable updateRunnable = new Runnable() {
+        public void run() {
+            updatePending.set(false);
+            update();
+        }
+    };
+
+    /**
+     * Constructor
+     * 
+     * @param playerManager
+     *            Player manager
+     */
+    public DisplayRefresher(PlayerManager playerManager) {
+        this.playerManager = playerManager;
+        scheduler = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "Display refresh");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Get the refresh period
+     * 
+     * @return Refresh period, in milliseconds
+     */
+    public synchronized int getRefreshMillis() {
+        return refreshMillis;
+    }
+
+    /**
+     * Set the refresh period
+     * 
+     * @param refreshMillis
+     *            Refresh period, in milliseconds
+     */
+    public synchronized void setRefreshMillis(int refreshMillis) {
+        this.refreshMillis = refreshMillis;
+        reschedule();
+    }
+
+    /**
+     * Tell whether the player is playing
+     * 
+     * @param playing
+     *            true if playing
+     */
+    public synchronized void setPlaying(boolean playing) {
+        if (this.playing != playing) {
+            this.playing = playing;
+            reschedule();
+        }
+    }
+
+    /**
+     * Tell whether the main window can be seen
+     * 
+     * @param visible
+     *            false if minimized or hidden
+     */
+    public synchronized void setVisible(boolean visible) {
+        if (this.visible != visible) {
+            this.visible = visible;
+            reschedule();
+        }
+    }
+
+    /**
+     * Ask for a display update. Ignored if one is already waiting.
+     */
+    public void refresh() {
+        if (updatePending.compareAndSet(false, true))
+            EventQueue.invokeLater(updateRunnable);
+    }
+
+    /**
+     * Start or stop the periodic refresh to match the current state
+     */
+    private void reschedule() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        if (playing && visible)
+            task = scheduler.scheduleAtFixedRate(refreshRunnable, 0,
+                    refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Update the display with the current position
+     */
+    private void update() {
+        if (playerManager.getPlayer() == null
+                || playerManager.getSongManager().getCurrentSong() == null
+                || playerManager.getPlayerStatus() != PlayerStatus.PLAYING)
+            return;
+        MainWindow.getInstance().getDisplayUpdater()
+                .updateDynamicDisplayInformation(playerManager);
+    }
+}
\ No newline at end of file
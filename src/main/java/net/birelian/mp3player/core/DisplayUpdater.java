@@ -49,9 +49,9 @@ public class DisplayUpdater {
         String title = playerManager.getSongManager().getCurrentSong()
                 .getTitle();
         String bitrate = playerManager.getSongManager().getCurrentSong()
-                .getBitRate();
+                .getBitRateText();
         String sampleRate = playerManager.getSongManager().getCurrentSong()
-                .getSampleRate();
+                .getSampleRateText();
         String channels = playerManager.getSongManager().getCurrentSong()
                 .getChannels();
 
@@ -21,6 +21,9 @@
 
 package net.birelian.mp3player.core;
 
+import java.awt.EventQueue;
+import java.util.List;
+
 import javax.swing.ImageIcon;
 
 import net.birelian.mp3player.ui.MainWindow;
@@ -119,9 +122,17 @@ public class EventManager {
     public void songChanged() {
         // Update Display
         displayUpdater.updateStaticDisplayInformation(playerManager);
-        // Update VisualPlayList
-        visualPlayList.highlightPlayingSong(playerManager.getSongManager()
-                .getCurrentSong());
+        // Fired from the playback thread. The playlist is updated in the
+        // event dispatch thread
+        final Song song = playerManager.getSongManager().getCurrentSong();
+        EventQueue.invokeLater(new Runnable() {
+            public void run() {
+                // The song may come from the up next queue
+                visualPlayList.refreshQueue();
+                // Update VisualPlayList
+                visualPlayList.highlightPlayingSong(song);
+            }
+        });
     }
 
     /**
@@ -130,4 +141,26 @@ public class EventManager {
     public void songAdded(Song song) {
         visualPlayList.enqueue(song);
     }
+
+    /**
+     * Actions that should be taken when several songs are added at once
+     */
+    public void songsAdded(List<Song> songs) {
+        visualPlayList.enqueueAll(songs);
+    }
+
+    /**
+     * Actions that should be taken when songs are removed from the song
+     * manager
+     */
+    public void songsRemoved(List<Song> songs) {
+        visualPlayList.dequeueAll(songs);
+    }
+
+    /**
+     * Actions that should be taken when song metadata is refreshed
+     */
+    public void songsUpdated(List<Song> songs) {
+        visualPlayList.refreshAll(songs);
+    }
 }
@@ -0,0 +1,351 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.awt.EventQueue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps the playlist in sync with watched folders. Files added, changed or
+ * deleted under a watched folder are added, refreshed or removed.
+ * 
+ * Changes are collected until the folders have been quiet for a while, and
+ * then applied in one batch. Only changed paths are looked at: songs are
+ * found through the song manager path index. When the watch service loses
+ * events, the whole directory tree is scanned again.
+ * 
+ * Files seen in the watched trees are remembered, so a song the user has
+ * removed from the playlist is only added again if its file is new.
+ * 
+ * @author birelian
+ * 
+ */
+public class FolderWatcher {
+    /** Logger */
+    private final Logger logger = LogManager.getLogger(FolderWatcher.class);
+
+    /** Quiet time before applying changes, in milliseconds */
+    private static final long DEBOUNCE_MILLIS = 1000;
+
+    /** Player manager */
+    private final PlayerManager playerManager;
+
+    /** Watch service */
+    private final WatchService watchService;
+
+    /** Watched directories by key */
+    private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+
+    /** Changed paths waiting to be applied, in arrival order */
+    private final Set<Path> changed = new LinkedHashSet<Path>();
+
+    /** Changed paths that have been created */
+    private final Set<Path> created = new HashSet<Path>();
+
+    /** Directory trees that lost events, to be scanned again */
+    private final Set<Path> lost = new LinkedHashSet<Path>();
+
+    /** Files seen in the watched trees. Guarded by itself */
+    private final Set<Path> known = new HashSet<Path>();
+
+    /** Watching thread */
+    private final Thread thread;
+
+    /**
+     * Constructor. Starts the watching thread.
+     * 
+     * @param playerManager
+     *            Player manager
+     * @throws IOException
+     */
+    public FolderWatcher(PlayerManager playerManager) throws IOException {
+        this.playerManager = playerManager;
+        watchService = FileSystems.getDefault().newWatchService();
+        final Runnable watchRunnable = new Runnable() {
+            public void run() {
+                watch();
+            }
+        };
+        thread = new Thread(watchRunnable, "Folder watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Watch a directory tree
+     * 
+     * @param directory
+     *            Directory
+     */
+    public void register(File directory) {
+        try {
+            List<Path> files = registerTree(directory.toPath()
+                    .toAbsolutePath());
+            synchronized (known) {
+                known.addAll(files);
+            }
+        } catch (IOException e) {
+            logger.error("Error watching " + directory.getAbsolutePath());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stop watching
+     */
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Register a directory and its subdirectories. Symbolic links to
+     * directories are not followed.
+     * 
+     * @param directory
+     *            Absolute directory path
+     * @return Files found in the tree
+     * @throws IOException
+     */
+    private List<Path> registerTree(Path directory) throws IOException {
+        WatchKey key = directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        synchronized (directories) {
+            directories.put(key, directory);
+        }
+        List<Path> files = new ArrayList<Path>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+        try {
+            for (Path child : stream)
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS))
+                    files.addAll(registerTree(child));
+                else
+                    files.add(child);
+        } finally {
+            stream.close();
+        }
+        return files;
+    }
+
+    /**
+     * Collect changes and apply them after a quiet period
+     */
+    private void watch() {
+        try {
+            while (true) {
+                // Wait for changes. Once there are some, only while new ones
+                // keep coming
+                boolean pending = !changed.isEmpty() || !lost.isEmpty();
+                WatchKey key = pending ? watchService.poll(DEBOUNCE_MILLIS,
+                        TimeUnit.MILLISECONDS) : watchService.take();
+                if (key == null) {
+                    apply();
+                    continue;
+                }
+                Path directory;
+                synchronized (directories) {
+                    directory = directories.get(key);
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        logger.error("Too many changes in " + directory
+                                + ". Scanning it again");
+                        lost.add(directory);
+                        continue;
+                    }
+                    Path path = directory.resolve((Path) event.context());
+                    changed.add(path);
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+                        created.add(path);
+                }
+                if (!key.reset())
+                    synchronized (directories) {
+                        directories.remove(key);
+                    }
+            }
+        } catch (InterruptedException e) {
+            // Stop watching
+        } catch (Exception e) {
+            // Watch service closed
+        }
+        logger.info("Folder watcher stopped");
+    }
+
+    /**
+     * Read changed songs and apply the batch in the event dispatch thread
+     */
+    private void apply() {
+        final List<Path> removed = new ArrayList<Path>();
+        final List<Song> read = new ArrayList<Song>();
+        for (Path directory : lost)
+            scan(directory, removed, read);
+        for (Path path : changed) {
+            if (isLost(path))
+                // Already scanned
+                continue;
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                // Changes inside an old directory have their own events
+                if (created.contains(path))
+                    scan(path, removed, read);
+            } else if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                removed.add(path);
+                forget(path);
+            } else if (isSong(path) && isWanted(path))
+                // New or changed. Unchanged files are read from the cache
+                read.add(playerManager.readSong(path.toFile()));
+        }
+        logger.info("Folder changes: " + changed.size() + " paths, "
+                + lost.size() + " directories scanned");
+        changed.clear();
+        created.clear();
+        lost.clear();
+        if (removed.isEmpty() && read.isEmpty())
+            return;
+        EventQueue.invokeLater(new Runnable() {
+            public void run() {
+                playerManager.applyFolderChanges(removed, read);
+            }
+        });
+    }
+
+    /**
+     * Scan a directory tree, watching any new subdirectory. New songs and
+     * songs in the playlist are read, and the songs of files not there
+     * anymore are removed.
+     * 
+     * @param directory
+     *            Directory
+     * @param removed
+     *            Removed files
+     * @param read
+     *            Songs read
+     */
+    private void scan(Path directory, List<Path> removed, List<Song> read) {
+        try {
+            // Directories already watched keep their key
+            List<Path> files = registerTree(directory);
+            for (Path file : files)
+                if (isSong(file) && isWanted(file))
+                    // Unchanged files are read from the cache
+                    read.add(playerManager.readSong(file.toFile()));
+            // Files deleted while events were lost are forgotten
+            Set<Path> found = new HashSet<Path>(files);
+            synchronized (known) {
+                for (Iterator<Path> it = known.iterator(); it.hasNext();) {
+                    Path file = it.next();
+                    if (file.startsWith(directory) && !found.contains(file))
+                        it.remove();
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error watching " + directory);
+        }
+        for (Song song : playerManager.getSongManager().getSongsUnder(
+                directory.toString()))
+            if (!new File(song.getFilePath()).exists())
+                removed.add(Paths.get(song.getFilePath()));
+    }
+
+    /**
+     * Check if a file should be read: it is new, or its song is in the
+     * playlist. Songs the user removed are not added again. The file is
+     * remembered.
+     * 
+     * @param file
+     *            File path
+     * @return true if the file should be read
+     */
+    private boolean isWanted(Path file) {
+        synchronized (known) {
+            if (known.add(file))
+                return true;
+        }
+        return !playerManager.getSongManager().getSongs(file.toString())
+                .isEmpty();
+    }
+
+    /**
+     * Forget a deleted file, or every file under a deleted directory
+     * 
+     * @param path
+     *            Path
+     */
+    private void forget(Path path) {
+        synchronized (known) {
+            for (Iterator<Path> it = known.iterator(); it.hasNext();)
+                if (it.next().startsWith(path))
+                    it.remove();
+        }
+    }
+
+    /**
+     * Check if a path is in a directory tree being scanned again
+     * 
+     * @param path
+     *            Path
+     * @return true if it is under a directory that lost events
+     */
+    private boolean isLost(Path path) {
+        for (Path directory : lost)
+            if (path.startsWith(directory))
+                return true;
+        return false;
+    }
+
+    /**
+     * Check if a file is an mp3 file
+     * 
+     * @param path
+     *            File path
+     * @return true for mp3 files
+     */
+    private boolean isSong(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(".mp3");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Byte offsets of every MPEG audio frame of a file. It is built once by
+ * scanning frame headers only (no decoding at all), so seeking to a frame
+ * doesn't need to read every previous frame.
+ * 
+ * @author birelian
+ * 
+ */
+public class FrameIndex {
+    /** Logger */
+    private final Logger logger = LogManager.getLogger(FrameIndex.class);
+
+    /** Size of the read window used while scanning */
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    /** Bit rates in kbps: [MPEG-1 / MPEG-2 and 2.5][layer I, II, III][index] */
+    private static final int[][][] BITRATES = {
+            {
+                    { 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352,
+                            384, 416, 448 },
+                    { 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256,
+                            320, 384 },
+                    { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224,
+                            256, 320 } },
+            {
+                    { 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192,
+                            224, 256 },
+                    { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144,
+                            160 },
+                    { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144,
+                            160 } } };
+
+    /** Sample rates in Hz: [version bits][index] */
+    private static final int[][] SAMPLE_RATES = { { 11025, 12000, 8000 },
+            null, { 22050, 24000, 16000 }, { 44100, 48000, 32000 } };
+
+    /** Header bits that must not change between frames of the same file */
+    private static final int STRICT_MASK = 0xFFFE0C00;
+
+    /** Frame offsets */
+    private long[] offsets = new long[1024];
+
+    /** Number of indexed frames */
+    private int size = 0;
+
+    /** Scan window */
+    private final byte[] window = new byte[WINDOW_SIZE];
+
+    /** File position of the first byte of the window */
+    private long windowStart = 0;
+
+    /** Valid bytes in the window */
+    private int windowLength = 0;
+
+    /**
+     * Builds the index of a given file
+     * 
+     * @param file
+     *            mp3 file
+     * @throws IOException
+     */
+    public FrameIndex(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            scan(raf);
+        } finally {
+            raf.close();
+        }
+        offsets = Arrays.copyOf(offsets, size);
+        logger.info("Indexed " + size + " frames of " + file.getAbsolutePath());
+    }
+
+    /**
+     * Get the number of indexed frames
+     * 
+     * @return Number of frames
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the byte offset where a frame starts
+     * 
+     * @param frame
+     *            Frame number, starting at 0
+     * @return Byte offset from the beginning of the file
+     */
+    public long getOffset(int frame) {
+        return offsets[frame];
+    }
+
+    /**
+     * Walk the file from header to header.
+     * 
+     * @param raf
+     *            File to be scanned
+     * @throws IOException
+     */
+    private void scan(RandomAccessFile raf) throws IOException {
+        long position = skipID3v2(raf);
+        int expected = 0;
+
+        while (true) {
+            int header = readInt(raf, position);
+            if (header == -1 && position + 4 > windowStart + windowLength)
+                break; // End of file
+            int length = frameLength(header);
+            if (length <= 0
+                    || (expected != 0 && (header & STRICT_MASK) != expected)) {
+                // Lost sync. Look for the next header byte by byte.
+                position++;
+                continue;
+            }
+            if (expected == 0)
+                expected = header & STRICT_MASK;
+            add(position);
+            position += length;
+        }
+    }
+
+    /**
+     * Get the length of the ID3v2 tag at the beginning of the file, if any
+     * 
+     * @param raf
+     *            File to be scanned
+     * @return Position of the first byte after the tag
+     * @throws IOException
+     */
+    private long skipID3v2(RandomAccessFile raf) throws IOException {
+        fill(raf, 0);
+        if (windowLength < 10 || window[0] != 'I' || window[1] != 'D'
+                || window[2] != '3')
+            return 0;
+        // Tag size is a 28 bits "synchsafe" integer
+        long tagSize = ((window[6] & 0x7F) << 21) | ((window[7] & 0x7F) << 14)
+                | ((window[8] & 0x7F) << 7) | (window[9] & 0x7F);
+        // Footer present
+        if ((window[5] & 0x10) != 0)
+            tagSize += 10;
+        return 10 + tagSize;
+    }
+
+    /**
+     * Compute the length of a frame from its header
+     * 
+     * @param header
+     *            Frame header
+     * @return Frame length in bytes, or -1 if it is not a valid header
+     */
+    static int frameLength(int header) {
+        if ((header >>> 21) != 0x7FF)
+            return -1;
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int sampleRateIndex = (header >>> 10) & 3;
+        int padding = (header >>> 9) & 1;
+        // Reserved and free format values are not supported
+        if (version == 1 || layer == 0 || bitrateIndex == 0
+                || bitrateIndex == 15 || sampleRateIndex == 3)
+            return -1;
+
+        int bitrate = BITRATES[version == 3 ? 0 : 1][3 - layer][bitrateIndex] * 1000;
+        int sampleRate = SAMPLE_RATES[version][sampleRateIndex];
+        if (layer == 3)
+            // Layer I
+            return (12 * bitrate / sampleRate + padding) * 4;
+        if (layer == 1 && version != 3)
+            // Layer III, MPEG-2 and MPEG-2.5
+            return 72 * bitrate / sampleRate + padding;
+        return 144 * bitrate / sampleRate + padding;
+    }
+
+    /**
+     * Read a big-endian integer
+     * 
+     * @param raf
+     *            File to be scanned
+     * @param position
+     *            File position
+     * @return Integer value, or -1 if there are not enough bytes left
+     * @throws IOException
+     */
+    private int readInt(RandomAccessFile raf, long position) throws IOException {
+        if (position < windowStart
+                || position + 4 > windowStart + windowLength)
+            fill(raf, position);
+        if (position + 4 > windowStart + windowLength)
+            return -1;
+        int i = (int) (position - windowStart);
+        return ((window[i] & 0xFF) << 24) | ((window[i + 1] & 0xFF) << 16)
+                | ((window[i + 2] & 0xFF) << 8) | (window[i + 3] & 0xFF);
+    }
+
+    /**
+     * Load the window starting at a given position
+     * 
+     * @param raf
+     *            File to be scanned
+     * @param position
+     *            File position
+     * @throws IOException
+     */
+    private void fill(RandomAccessFile raf, long position) throws IOException {
+        raf.seek(position);
+        int read = 0;
+        int n;
+        while (read < WINDOW_SIZE
+                && (n = raf.read(window, read, WINDOW_SIZE - read)) > 0)
+            read += n;
+        windowStart = position;
+        windowLength = read;
+    }
+
+    /**
+     * Add a frame offset
+     * 
+     * @param offset
+     *            Frame offset
+     */
+    private void add(long offset) {
+        if (size == offsets.length)
+            offsets = Arrays.copyOf(offsets, size * 2);
+        offsets[size++] = offset;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+/**
+ * Index of the tracks of the song list, kept up to date one track at a time
+ * after it is built.
+ * 
+ * @author birelian
+ * 
+ */
+public interface IncrementalIndex {
+
+    /**
+     * Index a new track
+     * 
+     * @param id
+     *            Track id
+     */
+    void add(int id);
+
+    /**
+     * Index the new metadata of a track
+     * 
+     * @param id
+     *            Track id
+     */
+    void update(int id);
+
+    /**
+     * Forget a removed track
+     * 
+     * @param id
+     *            Track id
+     */
+    void remove(int id);
+
+    /**
+     * Check if the index should be built again
+     * 
+     * @return true if most entries are stale
+     */
+    boolean isStale();
+}
\ No newline at end of file
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Seekable stream used to feed the player. Implementations decide how the
+ * file is read. Use {@link #open(File)} to get the most suitable one.
+ * 
+ * @author birelian
+ * 
+ */
+public abstract class InputSource extends InputStream {
+    /** Files bigger than this are read through a buffer instead of mapped */
+    public static final long MAX_MAPPED_SIZE = 128L * 1024 * 1024;
+
+    /** Marked position */
+    private long mark = 0;
+
+    /**
+     * Open a file using a memory mapped source. Very large files use a
+     * buffered source instead.
+     * 
+     * @param file
+     *            File to be opened
+     * @return Input source positioned at the beginning of the file
+     * @throws IOException
+     */
+    public static InputSource open(File file) throws IOException {
+        if (file.length() <= MAX_MAPPED_SIZE)
+            return new MappedInputSource(file);
+        return new BufferedInputSource(file);
+    }
+
+    /**
+     * Get the length of the source
+     * 
+     * @return Length in bytes
+     */
+    public abstract long length();
+
+    /**
+     * Get the current position
+     * 
+     * @return Position of the next byte to be read
+     */
+    public abstract long position();
+
+    /**
+     * Move to a given position
+     * 
+     * @param position
+     *            Position of the next byte to be read
+     * @throws IOException
+     */
+    public abstract void seek(long position) throws IOException;
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = Math.max(0, Math.min(n, length() - position()));
+        seek(position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, length() - position());
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        mark = position();
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        seek(mark);
+    }
+}
\ No newline at end of file
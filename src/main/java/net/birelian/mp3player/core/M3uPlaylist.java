@@ -0,0 +1,122 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * M3U playlist files. Extended M3U is written, in UTF-8. Both plain and
+ * extended files are read; .m3u8 files as UTF-8 and .m3u files in the
+ * platform encoding.
+ * 
+ * @author birelian
+ * 
+ */
+public class M3uPlaylist {
+
+    /**
+     * Check if a file is an M3U playlist
+     * 
+     * @param file
+     *            File
+     * @return true if its extension is .m3u or .m3u8
+     */
+    public static boolean isPlaylist(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".m3u") || name.endsWith(".m3u8");
+    }
+
+    /**
+     * Read the songs of a playlist. Relative paths are resolved from the
+     * playlist directory.
+     * 
+     * @param playlist
+     *            Playlist file
+     * @return Song files, in order
+     * @throws IOException
+     */
+    public static List<File> read(File playlist) throws IOException {
+        Charset charset = playlist.getName().toLowerCase()
+                .endsWith(".m3u8") ? StandardCharsets.UTF_8 : Charset
+                .defaultCharset();
+        File directory = playlist.getAbsoluteFile().getParentFile();
+        List<File> files = new ArrayList<File>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(playlist), charset));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                // Byte order mark, if any
+                if (files.isEmpty() && line.startsWith("\uFEFF"))
+                    line = line.substring(1);
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#"))
+                    continue;
+                File file = new File(line);
+                files.add(file.isAbsolute() ? file : new File(directory, line));
+            }
+        } finally {
+            in.close();
+        }
+        return files;
+    }
+
+    /**
+     * Write the playlist of a song manager
+     * 
+     * @param playlist
+     *            Playlist file
+     * @param songManager
+     *            Song manager
+     * @throws IOException
+     */
+    public static void write(File playlist, SongManager songManager)
+            throws IOException {
+        TrackStore trackStore = songManager.getTrackStore();
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(playlist), StandardCharsets.UTF_8));
+        try {
+            out.write("#EXTM3U");
+            out.newLine();
+            for (int id : songManager.getTrackIds()) {
+                out.write("#EXTINF:" + trackStore.getLength(id) + ","
+                        + trackStore.getDisplayName(id));
+                out.newLine();
+                out.write(trackStore.getPath(id));
+                out.newLine();
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Input source reading from a memory mapped file. Reads don't need any system
+ * call and seeking just moves the buffer position.
+ * 
+ * The mapping is released when the source is closed, instead of waiting for
+ * the garbage collector. Reads and close are synchronized, so a closed
+ * mapping is never touched.
+ * 
+ * @author birelian
+ * 
+ */
+public class MappedInputSource extends InputSource {
+    /** Mapped file. Null once closed */
+    private MappedByteBuffer buffer;
+
+    /**
+     * Constructor
+     * 
+     * @param file
+     *            File to be mapped. Must be smaller than 2GB
+     * @throws IOException
+     */
+    public MappedInputSource(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid once the channel is closed
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        if (!mapped().hasRemaining())
+            return -1;
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len)
+            throws IOException {
+        if (len == 0)
+            return 0;
+        if (!mapped().hasRemaining())
+            return -1;
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public synchronized long length() {
+        return buffer != null ? buffer.limit() : 0;
+    }
+
+    @Override
+    public synchronized long position() {
+        return buffer != null ? buffer.position() : 0;
+    }
+
+    @Override
+    public synchronized void seek(long position) throws IOException {
+        mapped().position((int) Math.min(position, buffer.limit()));
+    }
+
+    /**
+     * Release the mapping. Closing it again does nothing.
+     */
+    @Override
+    public synchronized void close() {
+        MappedByteBuffer mapping = buffer;
+        buffer = null;
+        if (mapping != null && Unmapper.INSTANCE != null)
+            Unmapper.INSTANCE.unmap(mapping);
+    }
+
+    /**
+     * Get the mapped file
+     * 
+     * @return Mapped file
+     * @throws IOException
+     *             If the source has been closed
+     */
+    private MappedByteBuffer mapped() throws IOException {
+        if (buffer == null)
+            throw new IOException("Source closed");
+        return buffer;
+    }
+}
\ No newline at end of file
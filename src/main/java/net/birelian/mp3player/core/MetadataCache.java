@@ -0,0 +1,562 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Persistent song metadata, so files already seen are not parsed again.
+ * Entries are keyed by absolute path and are only valid while the file size
+ * and modification time don't change.
+ * 
+ * The cache file is an append-only log. It is loaded in memory in a
+ * background thread when opened, and compacted (rewritten with live entries
+ * only, dropping files that don't exist anymore) when most of its records
+ * are obsolete. Calls made before it is loaded wait for it. Records are
+ * flushed in batches, so the last ones may be lost if the cache is not
+ * closed; a truncated log is rewritten when loaded.
+ * 
+ * @author birelian
+ * 
+ */
+public class MetadataCache {
+    /** Logger */
+    private final Logger logger = LogManager.getLogger(MetadataCache.class);
+
+    /** File format identifier */
+    private static final int MAGIC = 0x57575443;
+
+    /** File format version */
+    private static final int VERSION = 2;
+
+    /** Song record */
+    private static final byte ENTRY = 1;
+
+    /** Removed song record */
+    private static final byte REMOVED = 2;
+
+    /** Records below which the log is never compacted */
+    private static final int MIN_COMPACT_RECORDS = 1000;
+
+    /** Records written before the log is flushed */
+    private static final int FLUSH_RECORDS = 256;
+
+    /** Cache file */
+    private final File file;
+
+    /** Live entries by absolute path */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /** Records in the log, obsolete ones included */
+    private int records = 0;
+
+    /** Log writer. Null if the cache file can't be written */
+    private DataOutputStream out;
+
+    /** Records written since the last flush */
+    private int unflushed = 0;
+
+    /** Released once the cache file has been loaded */
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    /** Cache hits */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Cache misses */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Open a cache file, creating it if needed. It is loaded in a background
+     * thread. If it can't be read or written, the cache works in memory only.
+     * 
+     * @param file
+     *            Cache file
+     */
+    public MetadataCache(File file) {
+        this.file = file;
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    open();
+                } finally {
+                    loaded.countDown();
+                }
+            }
+        }, "Metadata cache");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get a song from the cache
+     * 
+     * @param songFile
+     *            Song file
+     * @return Song, or null if not cached or the file has changed
+     */
+    public Song get(File songFile) {
+        awaitLoad();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(songFile.getAbsolutePath());
+        }
+        if (entry == null || entry.size != songFile.length()
+                || entry.modified != songFile.lastModified()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.toSong();
+    }
+
+    /**
+     * Add or replace a song
+     * 
+     * @param songFile
+     *            Song file
+     * @param song
+     *            Song read from the file
+     */
+    public void put(File songFile, Song song) {
+        String path = songFile.getAbsolutePath();
+        Entry entry = new Entry(songFile.length(), songFile.lastModified(),
+                copy(song, path));
+        awaitLoad();
+        synchronized (this) {
+            entries.put(path, entry);
+            append(path, entry);
+        }
+    }
+
+    /**
+     * Remove a song
+     * 
+     * @param path
+     *            Absolute path of the song file
+     */
+    public void evict(String path) {
+        awaitLoad();
+        synchronized (this) {
+            if (entries.remove(path) != null)
+                append(path, null);
+        }
+    }
+
+    /**
+     * Rewrite the cache file with live entries only. Entries of files that
+     * don't exist anymore are evicted.
+     */
+    public void compact() {
+        awaitLoad();
+        synchronized (this) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Write pending records to disk and close the cache file. Entries
+     * stay available in memory.
+     */
+    public void close() {
+        awaitLoad();
+        synchronized (this) {
+            closeLog();
+        }
+    }
+
+    /**
+     * Get the number of cached songs
+     * 
+     * @return Number of entries
+     */
+    public int size() {
+        awaitLoad();
+        synchronized (this) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Get the number of cache hits
+     * 
+     * @return Songs found in the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of cache misses
+     * 
+     * @return Songs not found in the cache, or changed since cached
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Load the cache file and open it for appending, rewriting it first if
+     * needed
+     */
+    private synchronized void open() {
+        if (!file.exists())
+            openLog(false);
+        else if (!load() || records > MIN_COMPACT_RECORDS
+                && records > 2 * entries.size())
+            rewrite();
+        else
+            openLog(true);
+    }
+
+    /**
+     * Wait for the cache file to be loaded
+     */
+    private void awaitLoad() {
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Rewrite the cache file with live entries only
+     */
+    private void rewrite() {
+        Iterator<String> paths = entries.keySet().iterator();
+        while (paths.hasNext())
+            if (!new File(paths.next()).isFile())
+                paths.remove();
+        closeLog();
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            makeDirectory();
+            DataOutputStream tmpOut = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                tmpOut.writeInt(MAGIC);
+                tmpOut.writeInt(VERSION);
+                for (Map.Entry<String, Entry> e : entries.entrySet())
+                    write(tmpOut, e.getKey(), e.getValue());
+            } finally {
+                tmpOut.close();
+            }
+            if (file.exists() && !file.delete() || !tmp.renameTo(file))
+                throw new IOException("Can't replace " + file);
+            records = entries.size();
+            logger.info("Metadata cache compacted: " + records + " entries");
+        } catch (IOException e) {
+            logger.error("Error compacting metadata cache " + file);
+            e.printStackTrace();
+            tmp.delete();
+        }
+        openLog(true);
+    }
+
+    /**
+     * Read the cache file
+     * 
+     * @return false if the file is corrupt or truncated, so it must be
+     *         rewritten
+     */
+    private boolean load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return false;
+            while (true) {
+                int type = in.read();
+                if (type == -1)
+                    break;
+                String path = in.readUTF();
+                if (type == ENTRY)
+                    entries.put(path, read(in, path));
+                else if (type == REMOVED)
+                    entries.remove(path);
+                else
+                    return false;
+                records++;
+            }
+            logger.info("Metadata cache loaded: " + entries.size()
+                    + " entries, " + records + " records");
+            return true;
+        } catch (EOFException e) {
+            // Last record was not completely written
+            logger.error("Metadata cache truncated: " + file);
+            return false;
+        } catch (IOException e) {
+            logger.error("Error reading metadata cache " + file);
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (in != null)
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+        }
+    }
+
+    /**
+     * Open the log for appending
+     * 
+     * @param append
+     *            false for creating a new one
+     */
+    private void openLog(boolean append) {
+        try {
+            makeDirectory();
+            boolean created = !append || !file.exists();
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file, !created)));
+            if (created) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.flush();
+            }
+            unflushed = 0;
+        } catch (IOException e) {
+            logger.error("Metadata cache not writable. Memory only: " + file);
+            out = null;
+        }
+    }
+
+    /**
+     * Create the cache file directory, if needed
+     * 
+     * @throws IOException
+     */
+    private void makeDirectory() throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Can't create " + dir);
+    }
+
+    /**
+     * Close the log, if open
+     */
+    private void closeLog() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Append a record to the log
+     * 
+     * @param path
+     *            Absolute path
+     * @param entry
+     *            Entry, or null for a removed song
+     */
+    private void append(String path, Entry entry) {
+        if (out == null)
+            return;
+        try {
+            write(out, path, entry);
+            records++;
+            if (++unflushed >= FLUSH_RECORDS) {
+                out.flush();
+                unflushed = 0;
+            }
+        } catch (IOException e) {
+            logger.error("Error writing metadata cache. Memory only: " + file);
+            closeLog();
+        }
+    }
+
+    /**
+     * Write a record
+     * 
+     * @param out
+     *            Output
+     * @param path
+     *            Absolute path
+     * @param entry
+     *            Entry, or null for a removed song
+     * @throws IOException
+     */
+    private static void write(DataOutputStream out, String path, Entry entry)
+            throws IOException {
+        out.writeByte(entry != null ? ENTRY : REMOVED);
+        out.writeUTF(path);
+        if (entry == null)
+            return;
+        Song song = entry.song;
+        out.writeLong(entry.size);
+        out.writeLong(entry.modified);
+        writeString(out, song.getTitle());
+        writeString(out, song.getArtist());
+        writeString(out, song.getAlbum());
+        out.writeInt(song.getBitRate());
+        out.writeBoolean(song.isVariableBitRate());
+        out.writeInt(song.getSampleRate());
+        writeString(out, song.getChannels());
+        writeString(out, song.getFormat());
+        out.writeInt((int) song.getFrames());
+        out.writeInt(song.getLength());
+    }
+
+    /**
+     * Read the fields of a song record
+     * 
+     * @param in
+     *            Input
+     * @param path
+     *            Absolute path, already read
+     * @return Entry
+     * @throws IOException
+     */
+    private static Entry read(DataInputStream in, String path)
+            throws IOException {
+        long size = in.readLong();
+        long modified = in.readLong();
+        Song song = new Song();
+        song.setFilePath(path);
+        song.setTitle(readString(in));
+        song.setArtist(readString(in));
+        song.setAlbum(readString(in));
+        song.setBitRate(in.readInt());
+        song.setVariableBitRate(in.readBoolean());
+        song.setSampleRate(in.readInt());
+        song.setChannels(readString(in));
+        song.setFormat(readString(in));
+        song.setFrames(in.readInt());
+        song.setLength(in.readInt());
+        return new Entry(size, modified, song);
+    }
+
+    /**
+     * Write a string that may be null
+     * 
+     * @param out
+     *            Output
+     * @param value
+     *            String
+     * @throws IOException
+     */
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    /**
+     * Read a string that may be null
+     * 
+     * @param in
+     *            Input
+     * @return String
+     * @throws IOException
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Copy the metadata of a song
+     * 
+     * @param song
+     *            Song
+     * @param path
+     *            Absolute path of the copy
+     * @return New song
+     */
+    private static Song copy(Song song, String path) {
+        Song copy = new Song();
+        copy.setFilePath(path);
+        copy.setTitle(song.getTitle());
+        copy.setArtist(song.getArtist());
+        copy.setAlbum(song.getAlbum());
+        copy.setBitRate(song.getBitRate());
+        copy.setVariableBitRate(song.isVariableBitRate());
+        copy.setSampleRate(song.getSampleRate());
+        copy.setChannels(song.getChannels());
+        copy.setFormat(song.getFormat());
+        copy.setFrames(song.getFrames());
+        copy.setLength(song.getLength());
+        return copy;
+    }
+
+    /**
+     * Cached song, with the file size and modification time it was read
+     * from
+     */
+    private static class Entry {
+        /** File size */
+        private final long size;
+
+        /** File modification time */
+        private final long modified;
+
+        /** Song metadata. Never handed out, only copies */
+        private final Song song;
+
+        /**
+         * Constructor
+         * 
+         * @param size
+         *            File size
+         * @param modified
+         *            File modification time
+         * @param song
+         *            Song metadata
+         */
+        private Entry(long size, long modified, Song song) {
+            this.size = size;
+            this.modified = modified;
+            this.song = song;
+        }
+
+        /**
+         * Build a song from the entry
+         * 
+         * @return New song
+         */
+        private Song toSong() {
+            return copy(song, song.getFilePath());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,262 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed size ring of decoded PCM frames shared by one producer (the decoder)
+ * and one consumer (the audio output). Every slot is allocated up front and
+ * holds a whole decoded frame, so nothing is allocated while playing.
+ * 
+ * Indexes are only written by their owner thread, so no locking is needed.
+ * A waiting thread parks, with no timeout, until the other side makes
+ * progress or the buffer is cleared or closed. Every change of an index or
+ * flag is followed by an unpark of the other side, and a waiting thread
+ * publishes itself before checking again, so no wake up is lost and an idle
+ * player doesn't wake up at all.
+ * 
+ * @author birelian
+ * 
+ */
+public class PcmRingBuffer {
+    /** Slots. One decoded frame each */
+    private final short[][] slots;
+
+    /** Valid samples of every slot */
+    private final int[] lengths;
+
+    /** Number of slots */
+    private final int depth;
+
+    /** Next slot to be read. Only written by the consumer */
+    private volatile long head = 0;
+
+    /** Next slot to be written. Only written by the producer */
+    private volatile long tail = 0;
+
+    /** Frames before this one have been discarded */
+    private volatile long discarded = 0;
+
+    /** Buffer closed. Pending frames are discarded */
+    private volatile boolean closed = false;
+
+    /** Producer waiting for a free slot */
+    private volatile Thread waitingProducer;
+
+    /** Consumer waiting for a frame */
+    private volatile Thread waitingConsumer;
+
+    /** Times the consumer found the buffer empty while playing */
+    private final AtomicLong underruns = new AtomicLong();
+
+    /** Times the producer found the buffer full */
+    private final AtomicLong overruns = new AtomicLong();
+
+    /**
+     * Constructor
+     * 
+     * @param depth
+     *            Number of frames the buffer can hold
+     * @param slotSize
+     *            Maximum number of samples of a decoded frame
+     */
+    public PcmRingBuffer(int depth, int slotSize) {
+        this.depth = depth;
+        slots = new short[depth][slotSize];
+        lengths = new int[depth];
+    }
+
+    /**
+     * Copy a decoded frame into the buffer. Waits while the buffer is full.
+     * 
+     * @param samples
+     *            Decoded samples
+     * @param length
+     *            Number of valid samples
+     * @return false if the buffer has been closed
+     */
+    public boolean write(short[] samples, int length) {
+        if (tail - head == depth && !closed) {
+            overruns.incrementAndGet();
+            waitingProducer = Thread.currentThread();
+            while (tail - head == depth && !closed)
+                LockSupport.park(this);
+            waitingProducer = null;
+        }
+        if (closed)
+            return false;
+        int slot = (int) (tail % depth);
+        System.arraycopy(samples, 0, slots[slot], 0, length);
+        lengths[slot] = length;
+        tail++;
+        unpark(waitingConsumer);
+        return true;
+    }
+
+    /**
+     * Wait for the next frame to be played. The frame is kept in the buffer
+     * until {@link #release()} is called.
+     * 
+     * @param playing
+     *            true if an empty buffer means an audible dropout, so it is
+     *            counted as an underrun
+     * @return Slot holding the frame, or -1 if the buffer has been closed
+     */
+    public int take(boolean playing) {
+        skipDiscarded();
+        if (head == tail && !closed) {
+            if (playing)
+                underruns.incrementAndGet();
+            waitingConsumer = Thread.currentThread();
+            while (head == tail && !closed) {
+                LockSupport.park(this);
+                skipDiscarded();
+            }
+            waitingConsumer = null;
+        }
+        if (closed)
+            return -1;
+        return (int) (head % depth);
+    }
+
+    /**
+     * Get the samples of a slot
+     * 
+     * @param slot
+     *            Slot returned by {@link #take(boolean)}
+     * @return Samples
+     */
+    public short[] getSamples(int slot) {
+        return slots[slot];
+    }
+
+    /**
+     * Get the number of valid samples of a slot
+     * 
+     * @param slot
+     *            Slot returned by {@link #take(boolean)}
+     * @return Number of samples
+     */
+    public int getLength(int slot) {
+        return lengths[slot];
+    }
+
+    /**
+     * Free the slot returned by the last {@link #take(boolean)}
+     */
+    public void release() {
+        head++;
+        unpark(waitingProducer);
+    }
+
+    /**
+     * Discard every frame written so far. Can be called from any thread, for
+     * example when stopping from the user interface; a frame written at the
+     * same time may still be played. A frame the consumer is already playing
+     * is not affected.
+     */
+    public void clear() {
+        discarded = tail;
+        unpark(waitingConsumer);
+        // A draining producer is done
+        unpark(waitingProducer);
+    }
+
+    /**
+     * Wait until every frame has been played. Called by the producer.
+     */
+    public void drain() {
+        waitingProducer = Thread.currentThread();
+        while (size() > 0 && !closed)
+            LockSupport.park(this);
+        waitingProducer = null;
+    }
+
+    /**
+     * Close the buffer, discarding pending frames and waking up both sides.
+     */
+    public void close() {
+        closed = true;
+        unpark(waitingProducer);
+        unpark(waitingConsumer);
+    }
+
+    /**
+     * Get the number of frames waiting to be played
+     * 
+     * @return Buffered frames
+     */
+    public int size() {
+        return (int) (tail - Math.max(head, discarded));
+    }
+
+    /**
+     * Get the buffer depth
+     * 
+     * @return Number of frames the buffer can hold
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Get the number of underruns
+     * 
+     * @return Times the output found the buffer empty while playing
+     */
+    public long getUnderruns() {
+        return underruns.get();
+    }
+
+    /**
+     * Get the number of overruns
+     * 
+     * @return Times the decoder found the buffer full and had to wait
+     */
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    /**
+     * Jump over discarded frames. Called by the consumer.
+     */
+    private void skipDiscarded() {
+        long first = discarded;
+        if (head < first) {
+            head = first;
+            unpark(waitingProducer);
+        }
+    }
+
+    /**
+     * Wake up a thread, if any
+     * 
+     * @param thread
+     *            Thread to be woken up
+     */
+    private void unpark(Thread thread) {
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+}
\ No newline at end of file
@@ -22,8 +22,22 @@
 package net.birelian.mp3player.core;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -34,6 +48,14 @@ import net.birelian.mp3player.ui.MainWindow;
 /**
  * Player manager. Uses a CustomPlayer object for playing mp3 files.
  * 
+ * The player status is an atomic state machine (see
+ * {@link PlayerStatus#canMoveTo(PlayerStatus)}). While paused, the playback
+ * thread is parked and woken up on resume or stop.
+ * 
+ * The playback loop runs in a single thread that lives as long as the
+ * manager. Starting playback submits a new session to it; seeks and song
+ * changes are handed to the running session as load requests.
+ * 
  * @author birelian
  * 
  */
@@ -42,23 +64,115 @@ public class PlayerManager {
     /** Logger */
     private final Logger logger = LogManager.getLogger(PlayerManager.class);
 
-    /** Actual player */
-    private CustomPlayer player;
+    /** Actual player. Created once and kept for every song */
+    private volatile CustomPlayer player;
 
-    /** Player status */
-    private PlayerStatus playerStatus = PlayerStatus.NOTSTARTED;
+    /** Song load waiting to be applied by the playback thread */
+    private final AtomicReference<LoadRequest> pendingLoad = new AtomicReference<LoadRequest>();
+
+    /** Playback thread */
+    private volatile Thread playingThread;
+
+    /** Song loaded in the player. Only set by the playback thread */
+    private volatile Song loadedSong;
+
+    /** Runs the playback loop. Only one thread for the whole manager life */
+    private final ExecutorService playbackExecutor;
+
+    /** Playback session being run */
+    private volatile Future<?> playback;
+
+    /** Playback session number. Increased every time playback starts */
+    private final AtomicInteger session = new AtomicInteger();
+
+    /** Runs auxiliary tasks, like building frame indexes. Created lazily */
+    private ExecutorService auxiliaryExecutor;
+
+    /** Use virtual threads for auxiliary tasks, if the JVM has them */
+    private boolean virtualThreads = Boolean.getBoolean("wwtmp3.virtualThreads");
 
-    /** Locking object used to communicate with player thread */
-    private final Object playerLock = new Object();
+    /** Dynamic display refresh */
+    private final DisplayRefresher displayRefresher;
+
+    /** Number of frames decoded ahead of the audio device */
+    private int bufferFrames = CustomPlayer.DEFAULT_BUFFER_FRAMES;
+
+    /** Seconds before the end of a song when the next one is opened */
+    private int gaplessSeconds = 5;
+
+    /** Maximum audio decoded in one batch, in milliseconds */
+    private int batchMillis = 100;
+
+    /** Player status */
+    private final AtomicReference<PlayerStatus> playerStatus = new AtomicReference<PlayerStatus>(
+            PlayerStatus.NOTSTARTED);
 
     /** Song manager */
     private SongManager songManager;
 
+    /** Metadata of songs already seen */
+    private final MetadataCache metadataCache;
+
+    /** Keep imported folders in sync with the playlist */
+    private boolean watchFolders = Boolean.getBoolean("wwtmp3.watchFolders");
+
+    /** Folder watcher. Created with the first watched folder */
+    private FolderWatcher folderWatcher;
+
+    /** Playlist saved between sessions */
+    private final PlaylistSnapshot playlistSnapshot;
+
+    /** Frame the restored song starts from when first played. 0 if none */
+    private volatile long restoredFrame = 0;
+
+    /** Frame indexes kept, for the last songs seeked */
+    private static final int FRAME_INDEXES = 16;
+
+    /**
+     * Frame indexes by track id, least recently used first. Songs are built
+     * again every time they are taken from the song manager, so indexes
+     * can't be kept in them
+     */
+    private final Map<Integer, FrameIndex> frameIndexes = new LinkedHashMap<Integer, FrameIndex>(
+            FRAME_INDEXES, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<Integer, FrameIndex> eldest) {
+            return size() > FRAME_INDEXES;
+        }
+    };
+
     /**
      * Default constructor
      */
     public PlayerManager() {
-        songManager = new SongManager();
+        // Last session playlist, if any
+        playlistSnapshot = new PlaylistSnapshot(new File(
+                System.getProperty("user.home"), ".wwtmp3/playlist.bin"));
+        boolean offHeap = Boolean.getBoolean("wwtmp3.offHeapTracks");
+        TrackStore restored = playlistSnapshot.restore(offHeap);
+        songManager = new SongManager(restored != null ? restored
+                : new TrackStore(offHeap));
+        int position = playlistSnapshot.getPosition();
+        if (position > -1 && position < songManager.size()) {
+            songManager.setCurrentPosition(position);
+            restoredFrame = playlistSnapshot.getFrame();
+        }
+        songManager.setShuffle(Boolean.getBoolean("wwtmp3.shuffle"));
+        displayRefresher = new DisplayRefresher(this);
+        metadataCache = new MetadataCache(new File(
+                System.getProperty("user.home"), ".wwtmp3/metadata.cache"));
+        playbackExecutor = Executors
+                .newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "Playback");
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MAX_PRIORITY);
+                        return thread;
+                    }
+                });
         logger.info("Creating PausablePlayer instance");
     }
 
@@ -80,24 +194,336 @@ public class PlayerManager {
         return songManager;
     }
 
+    /**
+     * Get the song metadata cache
+     * 
+     * @return Metadata cache
+     */
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * Check if imported folders are watched
+     * 
+     * @return true if watched folders mode is on
+     */
+    public boolean isWatchFolders() {
+        return watchFolders;
+    }
+
+    /**
+     * Turn watched folders mode on or off. Applies to folders imported from
+     * then on. Defaults to the wwtmp3.watchFolders system property.
+     * 
+     * @param watchFolders
+     *            true for watching imported folders
+     */
+    public void setWatchFolders(boolean watchFolders) {
+        this.watchFolders = watchFolders;
+    }
+
+    /**
+     * Check if shuffling
+     * 
+     * @return true if songs are played in random order
+     */
+    public boolean isShuffle() {
+        return songManager.isShuffle();
+    }
+
+    /**
+     * Turn shuffle mode on or off. Defaults to the wwtmp3.shuffle system
+     * property.
+     * 
+     * @param shuffle
+     *            true to play songs in random order
+     */
+    public void setShuffle(boolean shuffle) {
+        songManager.setShuffle(shuffle);
+    }
+
+    /**
+     * Save the playlist and the current song and frame, to be restored in
+     * the next session
+     */
+    public void saveSession() {
+        long frame = 0;
+        CustomPlayer current = player;
+        PlayerStatus status = playerStatus.get();
+        if (current != null && (status == PlayerStatus.PLAYING
+                || status == PlayerStatus.PAUSED))
+            frame = current.getFrame();
+        try {
+            playlistSnapshot.save(songManager, frame);
+        } catch (IOException e) {
+            logger.error("Error saving playlist");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Watch an imported folder, if watched folders mode is on
+     * 
+     * @param directory
+     *            Folder
+     */
+    public synchronized void watch(File directory) {
+        if (!watchFolders)
+            return;
+        if (folderWatcher == null)
+            try {
+                folderWatcher = new FolderWatcher(this);
+            } catch (IOException e) {
+                logger.error("Folders can't be watched");
+                e.printStackTrace();
+                return;
+            }
+        folderWatcher.register(directory);
+    }
+
+    /**
+     * Apply a batch of changes found in watched folders. Runs in the event
+     * dispatch thread.
+     * 
+     * @param removed
+     *            Deleted files and directories
+     * @param read
+     *            New or changed songs
+     */
+    public void applyFolderChanges(List<Path> removed, List<Song> read) {
+        List<Song> gone = new ArrayList<Song>();
+        for (Path path : removed) {
+            gone.addAll(songManager.getSongs(path.toString()));
+            gone.addAll(songManager.getSongsUnder(path.toString()));
+            metadataCache.evict(path.toString());
+        }
+        for (Song song : gone)
+            metadataCache.evict(song.getFilePath());
+        removeAll(gone);
+
+        List<Song> added = new ArrayList<Song>();
+        List<Song> updated = new ArrayList<Song>();
+        for (Song song : read) {
+            List<Song> existing = songManager.getSongs(song.getFilePath());
+            if (existing.isEmpty())
+                added.add(song);
+            for (Song old : existing) {
+                copyMetadata(song, old);
+                songManager.update(old);
+                updated.add(old);
+            }
+        }
+        if (!added.isEmpty())
+            addAll(added);
+        MainWindow.getInstance().getEventManager().songsUpdated(updated);
+        logger.info("Folder changes applied: " + added.size() + " added, "
+                + updated.size() + " refreshed, " + gone.size() + " removed");
+    }
+
+    /**
+     * Copy the metadata of a song read again into the playlist song
+     * 
+     * @param from
+     *            Song just read
+     * @param to
+     *            Playlist song
+     */
+    private void copyMetadata(Song from, Song to) {
+        to.setTitle(from.getTitle());
+        to.setArtist(from.getArtist());
+        to.setAlbum(from.getAlbum());
+        to.setBitRate(from.getBitRate());
+        to.setVariableBitRate(from.isVariableBitRate());
+        to.setSampleRate(from.getSampleRate());
+        to.setChannels(from.getChannels());
+        to.setFormat(from.getFormat());
+        to.setFrames(from.getFrames());
+        to.setLength(from.getLength());
+        // Frame offsets are no longer valid
+        synchronized (frameIndexes) {
+            frameIndexes.remove(to.getId());
+        }
+    }
+
+    /**
+     * Get the dynamic display refresh
+     * 
+     * @return Display refresher
+     */
+    public DisplayRefresher getDisplayRefresher() {
+        return displayRefresher;
+    }
+
+    /**
+     * Get the decode-ahead buffer depth
+     * 
+     * @return Number of frames decoded ahead of the audio device
+     */
+    public int getBufferFrames() {
+        return bufferFrames;
+    }
+
+    /**
+     * Set the decode-ahead buffer depth. Applies when the player is created,
+     * so it must be set before playing or after closing the player.
+     * 
+     * @param bufferFrames
+     *            Number of frames decoded ahead of the audio device. 0
+     *            disables decoding ahead
+     */
+    public void setBufferFrames(int bufferFrames) {
+        this.bufferFrames = bufferFrames;
+    }
+
+    /**
+     * Get the gapless playback lead time
+     * 
+     * @return Seconds before the end of a song when the next one is opened
+     */
+    public int getGaplessSeconds() {
+        return gaplessSeconds;
+    }
+
+    /**
+     * Set the gapless playback lead time
+     * 
+     * @param gaplessSeconds
+     *            Seconds before the end of a song when the next one is
+     *            opened. 0 disables gapless playback
+     */
+    public void setGaplessSeconds(int gaplessSeconds) {
+        this.gaplessSeconds = gaplessSeconds;
+    }
+
+    /**
+     * Check if auxiliary tasks use virtual threads
+     * 
+     * @return true if virtual threads are requested
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Use virtual threads for auxiliary tasks. Applies when the first
+     * auxiliary task is run. Ignored if the JVM has no virtual threads.
+     * Defaults to the wwtmp3.virtualThreads system property.
+     * 
+     * @param virtualThreads
+     *            true for using virtual threads
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Get the maximum batch length
+     * 
+     * @return Maximum audio decoded in one batch, in milliseconds
+     */
+    public int getBatchMillis() {
+        return batchMillis;
+    }
+
+    /**
+     * Set the maximum batch length. Pause, stop and seek requests are
+     * noticed between batches, so this bounds their latency.
+     * 
+     * @param batchMillis
+     *            Maximum audio decoded in one batch, in milliseconds
+     */
+    public void setBatchMillis(int batchMillis) {
+        this.batchMillis = batchMillis;
+    }
+
     /**
      * Get the player status
      * 
      * @return Player status
      */
     public PlayerStatus getPlayerStatus() {
-        return playerStatus;
+        return playerStatus.get();
+    }
+
+    /**
+     * Set the player status, if the transition from the current one is
+     * allowed. Parked threads are woken up to check the new status.
+     * 
+     * @param playerStatus
+     *            New player status
+     * @return true if the status is now the requested one
+     */
+    public boolean setPlayerStatus(PlayerStatus playerStatus) {
+        while (true) {
+            PlayerStatus current = this.playerStatus.get();
+            if (current == playerStatus)
+                return true;
+            if (!current.canMoveTo(playerStatus))
+                return false;
+            if (changeStatus(current, playerStatus))
+                return true;
+        }
     }
 
     /**
-     * Set the player status
+     * Change the player status if it is still the expected one
      * 
+     * @param expected
+     *            Expected status
      * @param playerStatus
      *            New player status
+     * @return true if changed
      */
-    public void setPlayerStatus(PlayerStatus playerStatus) {
-        this.playerStatus = playerStatus;
+    private boolean changeStatus(PlayerStatus expected,
+            PlayerStatus playerStatus) {
+        if (!this.playerStatus.compareAndSet(expected, playerStatus))
+            return false;
         logger.info("Player status set to: " + playerStatus);
+        // The playback thread checks the status between batches
+        CustomPlayer current = player;
+        if (current != null)
+            current.endBatch();
+        unpark(playingThread);
+        displayRefresher.setPlaying(playerStatus == PlayerStatus.PLAYING);
+        return true;
+    }
+
+    /**
+     * Pause or resume the player output to match the player status. Repeats
+     * until no other thread has changed the status in between.
+     */
+    private void syncPaused() {
+        CustomPlayer current = player;
+        if (current == null)
+            return;
+        boolean paused;
+        do {
+            paused = playerStatus.get() == PlayerStatus.PAUSED;
+            current.setPaused(paused);
+        } while (paused != (playerStatus.get() == PlayerStatus.PAUSED));
+    }
+
+    /**
+     * Park the calling thread while the player is paused
+     */
+    private void waitWhilePaused() {
+        while (playerStatus.get() == PlayerStatus.PAUSED) {
+            LockSupport.park(this);
+            if (Thread.interrupted())
+                break;
+        }
+    }
+
+    /**
+     * Wake up a thread, if any
+     * 
+     * @param thread
+     *            Thread to be woken up
+     */
+    private void unpark(Thread thread) {
+        if (thread != null)
+            LockSupport.unpark(thread);
     }
 
     /**
@@ -108,70 +534,227 @@ public class PlayerManager {
      * @throws JavaLayerException
      */
     public void play(long startFrame) throws JavaLayerException {
+        // The first song played goes on where the last session left it
+        if (startFrame == 0 && restoredFrame > 0
+                && songManager.getCurrentPosition() == playlistSnapshot
+                        .getPosition())
+            startFrame = restoredFrame;
+        restoredFrame = 0;
         // If there is a current song
         if (songManager.getCurrentSong() != null) {
             try {
-                FileInputStream fileStream = new FileInputStream(songManager
-                        .getCurrentSong().getFilePath());
-                player = new CustomPlayer(fileStream);
-                // If not starting from the beginning
-                if (startFrame > 0)
-                    player.goToFrame(startFrame);
+                Song song = songManager.getCurrentSong();
+                if (startFrame > 0 && getFrameIndex(song) == null) {
+                    // Index the song without blocking the caller, then seek
+                    indexAndPlay(song, startFrame);
+                    return;
+                }
+                // If not starting from the beginning, go straight to the
+                // frame offset
+                long offset = getFrameOffset(song, startFrame);
+                if (offset > 0 && song.equals(loadedSong)) {
+                    PlayerStatus current = playerStatus.get();
+                    if (current == PlayerStatus.PAUSED
+                            || current == PlayerStatus.PLAYING) {
+                        // The song being played is moved, not opened again
+                        if (request(new LoadRequest(song, null, startFrame,
+                                offset)))
+                            return;
+                    }
+                }
+                InputSource source = openSong(song);
+                if (offset > 0)
+                    source.seek(offset);
                 // startedPlaying Event
                 MainWindow.getInstance().getEventManager().startedPlaying();
-                synchronized (playerLock) {
-                    switch (playerStatus) {
-                    case FINISHED:
-                    case NOTSTARTED:
-                        // Playback process
-                        final Runnable playingRunnable = new Runnable() {
-                            public void run() {
-                                playInternal();
-                            }
-                        };
-                        final Thread playingThread = new Thread(playingRunnable);
-                        playingThread.setDaemon(true);
-                        playingThread.setPriority(Thread.MAX_PRIORITY);
-
-                        // Dynamic display updating process
-                        final Runnable displayUpdatingRunnable = new Runnable() {
-                            public void run() {
-                                updateDisplay();
-                            }
-                        };
-                        final Thread updateDisplayThread = new Thread(
-                                displayUpdatingRunnable);
-                        updateDisplayThread.setDaemon(true);
-                        updateDisplayThread.setPriority(Thread.MAX_PRIORITY);
-
-                        // Run processes
-                        setPlayerStatus(PlayerStatus.PLAYING);
-                        playingThread.start();
-                        updateDisplayThread.start();
-                        break;
-                    case PAUSED:
-                        resume();
-                        break;
-                    default:
+                LoadRequest request = new LoadRequest(song, source,
+                        startFrame, offset);
+                while (true) {
+                    PlayerStatus current = playerStatus.get();
+                    if (current == PlayerStatus.PAUSED
+                            || current == PlayerStatus.PLAYING) {
+                        // The playback thread loads it between two frames
+                        if (request(request))
+                            break;
+                        continue;
+                    }
+                    // Only one caller wins the transition and starts playing
+                    if (changeStatus(current, PlayerStatus.PLAYING)) {
+                        start(request);
                         break;
                     }
                 }
-            } catch (FileNotFoundException e) {
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
+    /**
+     * Hand a load request to the running playback loop, and resume
+     * 
+     * @param request
+     *            Load request
+     * @return true if taken by the playback loop, false if the loop
+     *         finished without seeing it and a new session must be started
+     */
+    private boolean request(LoadRequest request) {
+        requestLoad(request);
+        resume();
+        // The loop takes any request left once it has set FINISHED, so a
+        // request still there by then is taken back
+        return playerStatus.get() != PlayerStatus.FINISHED
+                || !pendingLoad.compareAndSet(request, null);
+    }
+
+    /**
+     * Submit a new playback session. It waits for the previous one to be
+     * over, loads the first song and runs the playback loop.
+     * 
+     * @param request
+     *            Load request
+     */
+    private void start(final LoadRequest request) {
+        final int current = session.incrementAndGet();
+        playback = playbackExecutor.submit(new Runnable() {
+            public void run() {
+                playingThread = Thread.currentThread();
+                if (session.get() != current) {
+                    // Replaced before starting
+                    closeQuietly(request.source);
+                    return;
+                }
+                try {
+                    if (player == null)
+                        player = new CustomPlayer(null, bufferFrames);
+                    load(request);
+                } catch (JavaLayerException e) {
+                    logger.error("Error starting playback");
+                    e.printStackTrace();
+                    closeQuietly(request.source);
+                    setPlayerStatus(PlayerStatus.FINISHED);
+                    MainWindow.getInstance().getEventManager()
+                            .stoppedPlaying();
+                    return;
+                }
+                // Paused before the player was ready
+                syncPaused();
+                playInternal(current);
+            }
+        });
+    }
+
+    /**
+     * Build the frame index of a song in an auxiliary thread, and then play
+     * it from a given frame.
+     * 
+     * @param song
+     *            Song
+     * @param startFrame
+     *            Frame from where start playing
+     */
+    private void indexAndPlay(final Song song, final long startFrame) {
+        getAuxiliaryExecutor().execute(new Runnable() {
+            public void run() {
+                getFrameOffset(song, startFrame);
+                // Skipped if the song has been changed in between
+                if (getFrameIndex(song) != null
+                        && song.equals(songManager.getCurrentSong()))
+                    try {
+                        play(startFrame);
+                    } catch (JavaLayerException e) {
+                        e.printStackTrace();
+                    }
+            }
+        });
+    }
+
+    /**
+     * Get the executor for auxiliary tasks. Uses virtual threads if requested
+     * and available.
+     * 
+     * @return Auxiliary executor
+     */
+    private synchronized ExecutorService getAuxiliaryExecutor() {
+        if (auxiliaryExecutor == null) {
+            if (virtualThreads)
+                try {
+                    // Java 21 and later
+                    Method method = Executors.class
+                            .getMethod("newVirtualThreadPerTaskExecutor");
+                    auxiliaryExecutor = (ExecutorService) method.invoke(null);
+                    logger.info("Auxiliary tasks run in virtual threads");
+                } catch (Exception e) {
+                    logger.info("Virtual threads not available");
+                }
+            if (auxiliaryExecutor == null)
+                auxiliaryExecutor = Executors
+                        .newCachedThreadPool(new ThreadFactory() {
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, "Auxiliary");
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+        }
+        return auxiliaryExecutor;
+    }
+
+    /**
+     * Get the byte offset of a song frame. The song frame index is built the
+     * first time it is needed.
+     * 
+     * @param song
+     *            Song
+     * @param frame
+     *            Frame number
+     * @return Byte offset, or -1 if unknown
+     */
+    private long getFrameOffset(Song song, long frame) {
+        if (frame <= 0)
+            return -1;
+        try {
+            FrameIndex frameIndex = getFrameIndex(song);
+            if (frameIndex == null) {
+                frameIndex = new FrameIndex(new File(song.getFilePath()));
+                synchronized (frameIndexes) {
+                    frameIndexes.put(song.getId(), frameIndex);
+                }
+            }
+            if (frame < frameIndex.size())
+                return frameIndex.getOffset((int) frame);
+        } catch (IOException e) {
+            logger.error("Error indexing " + song.getFilePath());
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    /**
+     * Get the frame index of a song, if it has been built
+     * 
+     * @param song
+     *            Song
+     * @return Frame index, or null if not built yet
+     */
+    private FrameIndex getFrameIndex(Song song) {
+        synchronized (frameIndexes) {
+            return frameIndexes.get(song.getId());
+        }
+    }
+
     /**
      * Stop playing. If already stopped, does nothing
      */
     public void stop() {
-        synchronized (playerLock) {
-            setPlayerStatus(PlayerStatus.FINISHED);
-            playerLock.notifyAll();
-            // stoppedPlaying event
-            MainWindow.getInstance().getEventManager().stoppedPlaying();
-        }
+        setPlayerStatus(PlayerStatus.FINISHED);
+        // Silence the output and wake up the decoder if it is waiting for
+        // buffer space
+        CustomPlayer current = player;
+        if (current != null)
+            current.discard();
+        // stoppedPlaying event
+        MainWindow.getInstance().getEventManager().stoppedPlaying();
     }
 
     /**
@@ -180,12 +763,9 @@ public class PlayerManager {
      * @return true if new state is PAUSED.
      */
     public boolean pause() {
-        synchronized (playerLock) {
-            if (playerStatus == PlayerStatus.PLAYING) {
-                setPlayerStatus(PlayerStatus.PAUSED);
-            }
-            return playerStatus == PlayerStatus.PAUSED;
-        }
+        if (changeStatus(PlayerStatus.PLAYING, PlayerStatus.PAUSED))
+            syncPaused();
+        return playerStatus.get() == PlayerStatus.PAUSED;
     }
 
     /**
@@ -194,13 +774,9 @@ public class PlayerManager {
      * @return true if the new state is PLAYING.
      */
     public boolean resume() {
-        synchronized (playerLock) {
-            if (playerStatus == PlayerStatus.PAUSED) {
-                setPlayerStatus(PlayerStatus.PLAYING);
-                playerLock.notifyAll();
-            }
-            return playerStatus == PlayerStatus.PLAYING;
-        }
+        if (changeStatus(PlayerStatus.PAUSED, PlayerStatus.PLAYING))
+            syncPaused();
+        return playerStatus.get() == PlayerStatus.PLAYING;
     }
 
     /**
@@ -267,11 +843,41 @@ public class PlayerManager {
      *            File to be added
      */
     public void add(File file) {
-        Song song = new Song(file);
+        Song song = readSong(file);
         songManager.add(song);
         MainWindow.getInstance().getEventManager().songAdded(song);
     }
 
+    /**
+     * Add songs to the playlist at once
+     * 
+     * @param songs
+     *            Songs to be added, in order
+     */
+    public void addAll(List<Song> songs) {
+        songManager.addAll(songs);
+        MainWindow.getInstance().getEventManager().songsAdded(songs);
+    }
+
+    /**
+     * Read a song from a file, or from the metadata cache if the file has
+     * not changed. Can be called from any thread.
+     * 
+     * @param file
+     *            Song file
+     * @return Song
+     */
+    public Song readSong(File file) {
+        Song song = metadataCache.get(file);
+        if (song == null) {
+            song = new Song(file);
+            // Songs that could not be read are not cached
+            if (song.getTitle() != null)
+                metadataCache.put(file, song);
+        }
+        return song;
+    }
+
     /**
      * Remove a song
      * 
@@ -279,113 +885,341 @@ public class PlayerManager {
      *            Song to be removed
      */
     public void remove(Song song) {
-        // If removing current song, first remove it and then play next song.
-        if (song.equals(songManager.getCurrentSong())) {
-            songManager.remove(song);
-            // If it wasn't the last song, next song is already loaded. Play it.
+        removeAll(Collections.singletonList(song));
+    }
+
+    /**
+     * Remove several songs at once and fire a single songsRemoved event
+     * 
+     * @param songs
+     *            Songs to be removed
+     */
+    public void removeAll(List<Song> songs) {
+        if (songs.isEmpty())
+            return;
+        boolean currentRemoved = songManager.removeAll(songs);
+        // songsRemoved event
+        MainWindow.getInstance().getEventManager().songsRemoved(songs);
+        // If the current song was removed, play next song.
+        if (currentRemoved) {
+            // If it wasn't the last song, play the next one from its start
             if (songManager.getCurrentSong() != null
-                    && playerStatus == PlayerStatus.PLAYING)
+                    && playerStatus.get() == PlayerStatus.PLAYING)
                 try {
-                    play(1);
+                    play(0);
                 } catch (JavaLayerException e) {
                     e.printStackTrace();
                 }
             else
                 // No more songs, or player is stopped
                 stop();
-        } else {
-            // Otherwise, just remove the song
-            songManager.remove(song);
         }
     }
 
     /**
-     * Closes the player, regardless of current state.
+     * Closes the player, regardless of current state. The audio device is
+     * released and pending metadata cache records are written.
      */
     public void close() {
-        synchronized (playerLock) {
-            setPlayerStatus(PlayerStatus.FINISHED);
-        }
+        setPlayerStatus(PlayerStatus.FINISHED);
+        waitForPlayback();
         try {
-            player.close();
+            if (player != null)
+                player.close();
+            player = null;
             logger.info("Player closed");
         } catch (final Exception e) {
             e.printStackTrace();
         }
+        metadataCache.close();
     }
 
     /**
-     * Core of the playback process
+     * Core of the playback process. Runs until the player is stopped, there
+     * are no more songs, or a new session is started.
+     * 
+     * @param current
+     *            Playback session
      */
-    private void playInternal() {
+    private void playInternal(int current) {
         logger.info("Playing " + songManager.getCurrentSong().getFilePath());
         // playingStarted event
         MainWindow.getInstance().getEventManager().startedPlaying();
-        while (playerStatus != PlayerStatus.FINISHED) {
-            try {
-                // When song is over, automatically load next song
-                if (!player.play(1)) {
-                    // Try to load next song
-                    if (songManager.next() != null) {
-                        FileInputStream fileStream = new FileInputStream(
-                                songManager.getCurrentSong().getFilePath());
-                        // songChanged event
-                        MainWindow.getInstance().getEventManager()
-                                .songChanged();
-                        player = new CustomPlayer(fileStream);
-                        logger.info("Playing "
-                                + songManager.getCurrentSong().getFilePath());
-                    } else {
-                        // No more songs.
-                        break;
+        // Next song already queued for gapless playback
+        boolean queued = false;
+        Song queuedSong = null;
+        LoadRequest request;
+        while (true) {
+            while (playerStatus.get() != PlayerStatus.FINISHED
+                    && session.get() == current) {
+                try {
+                    // Seek or song change requested
+                    request = pendingLoad.getAndSet(null);
+                    if (request != null) {
+                        load(request);
+                        queued = false;
                     }
-                }
-            } catch (final JavaLayerException e) {
-                break;
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            }
-            // Check if paused
-            synchronized (playerLock) {
-                while (playerStatus == PlayerStatus.PAUSED) {
-                    try {
-                        playerLock.wait();
-                    } catch (final InterruptedException e) {
-                        // Terminate player
-                        break;
+                    // When song is over, automatically load next song
+                    if (player.play(player.getBatchSize(batchMillis))) {
+                        // Queued song started on the same audio device
+                        if (player.consumeTrackChange()) {
+                            queued = false;
+                            // Changed right before the switch. Dropped
+                            if (!songManager.isNext(queuedSong)) {
+                                if (!loadNextSong())
+                                    break;
+                                continue;
+                            }
+                            loadedSong = queuedSong;
+                            songManager.setCurrentSong(queuedSong);
+                            // songChanged event
+                            MainWindow.getInstance().getEventManager()
+                                    .songChanged();
+                            logger.info("Playing "
+                                    + queuedSong.getFilePath());
+                        }
+                        // The next song may have changed since it was queued
+                        if (queued && queuedSong != null
+                                && !songManager.isNext(queuedSong)) {
+                            player.discardNext();
+                            queued = false;
+                        }
+                        // Open the next song before the current one is over
+                        if (!queued && isEnding(player)) {
+                            queued = true;
+                            queuedSong = queueNextSong(player);
+                        }
+                    } else {
+                        // Stopped, or a new song is waiting to be loaded
+                        if (playerStatus.get() == PlayerStatus.FINISHED
+                                || pendingLoad.get() != null)
+                            continue;
+                        // Try to load next song
+                        if (loadNextSong())
+                            queued = false;
+                        else
+                            // No more songs.
+                            break;
                     }
+                } catch (final JavaLayerException e) {
+                    break;
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
+                // Check if paused
+                waitWhilePaused();
             }
+            // A new session takes over the player and its requests
+            if (session.get() != current)
+                return;
+            // Out of songs, unless stopped by someone else first
+            boolean ended = false;
+            PlayerStatus status;
+            while (!ended
+                    && (status = playerStatus.get()) != PlayerStatus.FINISHED)
+                ended = changeStatus(status, PlayerStatus.FINISHED);
+            // A play() that still saw the player playing may have left a
+            // request. It is played instead of stopping
+            request = pendingLoad.getAndSet(null);
+            if (!ended || request == null
+                    || !changeStatus(PlayerStatus.FINISHED,
+                            PlayerStatus.PLAYING))
+                break;
+            // Unless it has been replaced in between
+            if (!pendingLoad.compareAndSet(null, request)
+                    && request.source != null)
+                closeQuietly(request.source);
         }
-        // Close player and stoppedEvent
+        // Release the song, keeping the player, and stoppedEvent
+        player.unload();
+        loadedSong = null;
+        // Stopped, or lost to a new session started in between
+        if (request != null && request.source != null)
+            closeQuietly(request.source);
+        if (session.get() != current)
+            return;
         MainWindow.getInstance().getEventManager().stoppedPlaying();
-        close();
     }
 
     /**
-     * Update Display using a DisplayUpdater
+     * Move on to the next song and load it. Only called from the playback
+     * thread.
+     * 
+     * @return false if there are no more songs
+     * @throws IOException
+     * @throws JavaLayerException
+     */
+    private boolean loadNextSong() throws IOException, JavaLayerException {
+        Song next = songManager.next();
+        if (next == null)
+            return false;
+        InputSource fileStream = openSong(next);
+        // songChanged event
+        MainWindow.getInstance().getEventManager().songChanged();
+        player.load(fileStream);
+        loadedSong = next;
+        logger.info("Playing " + next.getFilePath());
+        return true;
+    }
+
+    /**
+     * Load a song in the player and go to the requested frame, or move the
+     * song already loaded. Only called from the playback thread.
+     * 
+     * @param request
+     *            Load request
+     * @throws JavaLayerException
+     */
+    private void load(LoadRequest request) throws JavaLayerException {
+        if (request.source == null) {
+            // Skipped if the song has been changed in between
+            if (request.song.equals(loadedSong))
+                player.seek(request.offset, request.startFrame);
+            return;
+        }
+        player.load(request.source);
+        loadedSong = request.song;
+        if (request.offset > 0)
+            player.setFrame(request.startFrame);
+        else if (request.startFrame > 0)
+            // Frame offset unknown. Skip frame by frame
+            player.goToFrame(request.startFrame);
+    }
+
+    /**
+     * Ask the playback thread to load a song. Replaces any request not
+     * applied yet.
+     * 
+     * @param request
+     *            Load request
+     */
+    private void requestLoad(LoadRequest request) {
+        LoadRequest previous = pendingLoad.getAndSet(request);
+        if (previous != null && previous.source != null)
+            closeQuietly(previous.source);
+        CustomPlayer current = player;
+        if (current != null)
+            current.endBatch();
+    }
+
+    /**
+     * Wait for the playback session to finish
      */
-    private void updateDisplay() {
-        // Dynamic information. Update constantly during playing
-        while (playerStatus != PlayerStatus.FINISHED) {
-            MainWindow.getInstance().getDisplayUpdater()
-                    .updateDynamicDisplayInformation(this);
+    private void waitForPlayback() {
+        Future<?> current = playback;
+        if (current != null && playingThread != Thread.currentThread())
             try {
-                Thread.sleep(500);
-            } catch (InterruptedException e1) {
-                e1.printStackTrace();
+                current.get(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.error("Playback session not over");
             }
+    }
 
-            // Check if paused or terminated
-            synchronized (playerLock) {
-                while (playerStatus == PlayerStatus.PAUSED) {
-                    try {
-                        playerLock.wait();
-                    } catch (final InterruptedException e) {
-                        break;
-                    }
-                }
+    /**
+     * Close a source nobody is going to read
+     * 
+     * @param source
+     *            Input source
+     */
+    private void closeQuietly(InputSource source) {
+        try {
+            source.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Open a song file
+     * 
+     * @param song
+     *            Song
+     * @return Song input source
+     * @throws IOException
+     */
+    private InputSource openSong(Song song) throws IOException {
+        return InputSource.open(new File(song.getFilePath()));
+    }
+
+    /**
+     * Check if the current song is close enough to its end to open the next
+     * one
+     * 
+     * @param current
+     *            Player
+     * @return true if the next song should be opened
+     */
+    private boolean isEnding(CustomPlayer current) {
+        Song song = songManager.getCurrentSong();
+        if (gaplessSeconds <= 0 || song == null || song.getFrames() <= 0)
+            return false;
+        long framesLeft = song.getFrames() - current.getFrame();
+        return framesLeft * song.getLength() <= (long) gaplessSeconds
+                * song.getFrames();
+    }
+
+    /**
+     * Queue the next song in the player, so it is played without a gap
+     * 
+     * @param current
+     *            Player
+     * @return Queued song, or null if it could not be queued
+     */
+    private Song queueNextSong(CustomPlayer current) {
+        Song nextSong = songManager.peekNext();
+        if (nextSong == null)
+            return null;
+        try {
+            if (current.queue(openSong(nextSong))) {
+                logger.info("Queued " + nextSong.getFilePath());
+                return nextSong;
             }
+            logger.info("Format change. No gapless playback for "
+                    + nextSong.getFilePath());
+        } catch (Exception e) {
+            logger.error("Error opening " + nextSong.getFilePath());
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Song to be loaded in the player, already positioned at its start frame.
+     * Without a source, the song already loaded is moved to the frame.
+     */
+    private static class LoadRequest {
+        /** Song */
+        private final Song song;
+
+        /** Song input source. Null to move the loaded song */
+        private final InputSource source;
+
+        /** Frame to start playing from */
+        private final long startFrame;
+
+        /** Byte offset of the start frame, or -1 if unknown */
+        private final long offset;
+
+        /**
+         * Constructor
+         * 
+         * @param song
+         *            Song
+         * @param source
+         *            Song input source, positioned at the offset if known.
+         *            Null to move the loaded song
+         * @param startFrame
+         *            Frame to start playing from
+         * @param offset
+         *            Byte offset of the start frame, or -1 if unknown
+         */
+        private LoadRequest(Song song, InputSource source, long startFrame,
+                long offset) {
+            this.song = song;
+            this.source = source;
+            this.startFrame = startFrame;
+            this.offset = offset;
         }
     }
 }
\ No newline at end of file
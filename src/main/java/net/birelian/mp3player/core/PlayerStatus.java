@@ -24,9 +24,32 @@ package net.birelian.mp3player.core;
 /**
  * Possible player thread status.
  * 
+ * NOTSTARTED and FINISHED move to PLAYING. PLAYING and PAUSED move to each
+ * other. Any status but FINISHED moves to FINISHED.
+ * 
  * @author birelian
  * 
  */
 public enum PlayerStatus {
-    NOTSTARTED, PLAYING, PAUSED, FINISHED
+    NOTSTARTED, PLAYING, PAUSED, FINISHED;
+
+    /**
+     * Check if the player can go from this status to another one
+     * 
+     * @param next
+     *            New status
+     * @return true if the transition is allowed
+     */
+    public boolean canMoveTo(PlayerStatus next) {
+        switch (this) {
+        case NOTSTARTED:
+            return next == PLAYING || next == FINISHED;
+        case PLAYING:
+            return next == PAUSED || next == FINISHED;
+        case PAUSED:
+            return next == PLAYING || next == FINISHED;
+        default:
+            return next == PLAYING;
+        }
+    }
 }
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Playlist saved between sessions: every song with its metadata, plus the
+ * current song and frame.
+ * 
+ * The file is a header followed by the columns of a {@link TrackStore}.
+ * It is restored by mapping it in memory, copy on write, so songs are
+ * neither parsed nor copied at startup: pages are read when the playlist
+ * shows them. The restored store is copied out of the mapping before the
+ * first save, and the mapping released, since some systems can't replace a
+ * mapped file.
+ * 
+ * @author birelian
+ * 
+ */
+public class PlaylistSnapshot {
+    /** Logger */
+    private final Logger logger = LogManager.getLogger(PlaylistSnapshot.class);
+
+    /** File format identifier */
+    private static final int MAGIC = 0x57575450;
+
+    /** File format version */
+    private static final int VERSION = 1;
+
+    /** Header length: magic, version, songs, position and frame */
+    private static final int HEADER_LENGTH = 24;
+
+    /** Snapshot file */
+    private final File file;
+
+    /** Position of the current song when restored, or -1 */
+    private int position = -1;
+
+    /** Frame of the current song when restored */
+    private long frame = 0;
+
+    /** Mapped snapshot file. Null once released */
+    private MappedByteBuffer mapping;
+
+    /** Track store read from the mapping */
+    private TrackStore restored;
+
+    /**
+     * Constructor
+     * 
+     * @param file
+     *            Snapshot file
+     */
+    public PlaylistSnapshot(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Save the playlist
+     * 
+     * @param songManager
+     *            Song manager
+     * @param frame
+     *            Frame of the current song
+     * @throws IOException
+     */
+    public synchronized void save(SongManager songManager, long frame)
+            throws IOException {
+        release();
+        int[] trackIds = songManager.getTrackIds();
+        int position = songManager.getCurrentPosition();
+        if (position >= trackIds.length)
+            position = -1;
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create " + directory);
+        // Written aside and moved in one step, so a failure or a crash keeps
+        // the last snapshot
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(trackIds.length);
+            out.writeInt(position);
+            out.writeLong(position > -1 ? frame : 0);
+            songManager.getTrackStore().write(out, trackIds, trackIds.length);
+        } finally {
+            out.close();
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Still a single step, replacing the file
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        logger.info("Playlist saved: " + trackIds.length + " songs");
+    }
+
+    /**
+     * Restore the playlist
+     * 
+     * @param offHeap
+     *            true to allocate columns for new songs outside of the Java
+     *            heap
+     * @return Track store holding the saved songs, or null if there is no
+     *         valid snapshot
+     */
+    public synchronized TrackStore restore(boolean offHeap) {
+        if (!file.isFile())
+            return null;
+        try {
+            // Copy on write mappings need a writable channel. The file is
+            // never written
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            MappedByteBuffer buffer;
+            try {
+                // The mapping stays valid once the file is closed
+                buffer = raf.getChannel().map(FileChannel.MapMode.PRIVATE, 0,
+                        raf.length());
+            } finally {
+                raf.close();
+            }
+            if (buffer.limit() < HEADER_LENGTH || buffer.getInt() != MAGIC
+                    || buffer.getInt() != VERSION) {
+                logger.error("Not a playlist snapshot: " + file);
+                if (Unmapper.INSTANCE != null)
+                    Unmapper.INSTANCE.unmap(buffer);
+                return null;
+            }
+            int count = buffer.getInt();
+            position = buffer.getInt();
+            frame = buffer.getLong();
+            TrackStore trackStore = TrackStore.read(buffer, count, offHeap);
+            release();
+            mapping = buffer;
+            restored = trackStore;
+            logger.info("Playlist restored: " + count + " songs");
+            return trackStore;
+        } catch (Exception e) {
+            // Truncated or corrupt. Start with an empty playlist
+            logger.error("Error restoring playlist from " + file);
+            e.printStackTrace();
+            position = -1;
+            frame = 0;
+            return null;
+        }
+    }
+
+    /**
+     * Copy the restored track store out of the mapped file, and release the
+     * mapping
+     */
+    private void release() {
+        if (mapping == null)
+            return;
+        restored.detach();
+        if (Unmapper.INSTANCE != null)
+            Unmapper.INSTANCE.unmap(mapping);
+        mapping = null;
+        restored = null;
+    }
+
+    /**
+     * Get the position of the current song when restored
+     * 
+     * @return Position in the list, or -1
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Get the frame of the current song when restored
+     * 
+     * @return Frame
+     */
+    public long getFrame() {
+        return frame;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,321 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Inverted index of the words of song artists, titles and albums, for
+ * search as you type.
+ * 
+ * Every word of the search must start a word of the song, so "beat ab"
+ * finds "The Beatles - Abbey Road". Words are compared in lower case and
+ * without accents. Whole words are kept sorted, so the words starting with
+ * a prefix are a range. Short prefixes start too many words for that, so
+ * the first letters of every word (edge n-grams) are indexed as well.
+ * 
+ * The index only grows. When a track changes, its new words are added and
+ * the old ones stay, so changed tracks are checked against the track store;
+ * removed tracks are left for the caller to skip. Once too many entries are
+ * stale the index should be built again.
+ * 
+ * Not thread safe.
+ * 
+ * @author birelian
+ * 
+ */
+public class SearchIndex implements IncrementalIndex {
+    /** Longest prefix indexed by itself */
+    private static final int PREFIX_LENGTH = 2;
+
+    /** Stale tracks allowed before building again, at least */
+    private static final int MIN_STALE = 1024;
+
+    /** Track store */
+    private final TrackStore trackStore;
+
+    /** Tracks by whole word */
+    private final Map<String, Posting> words = new HashMap<String, Posting>();
+
+    /** Same as words, sorted. Only changed when a new word shows up */
+    private final NavigableMap<String, Posting> sortedWords = new TreeMap<String, Posting>();
+
+    /** Tracks by word prefix, up to PREFIX_LENGTH letters */
+    private final Map<String, Posting> prefixes = new HashMap<String, Posting>();
+
+    /** Tracks changed since the index was built */
+    private final BitSet updated = new BitSet();
+
+    /** Number of tracks indexed */
+    private int size = 0;
+
+    /** Number of tracks changed or removed since the index was built */
+    private int stale = 0;
+
+    /**
+     * Constructor. Indexes a list of tracks.
+     * 
+     * @param trackStore
+     *            Track store
+     * @param trackIds
+     *            Track ids
+     * @param count
+     *            Number of track ids
+     */
+    public SearchIndex(TrackStore trackStore, int[] trackIds, int count) {
+        this.trackStore = trackStore;
+        for (int i = 0; i < count; i++)
+            add(trackIds[i]);
+    }
+
+    /**
+     * Index a new track
+     * 
+     * @param id
+     *            Track id
+     */
+    @Override
+    public void add(int id) {
+        for (String word : words(id)) {
+            Posting posting = words.get(word);
+            if (posting == null) {
+                words.put(word, posting = new Posting());
+                sortedWords.put(word, posting);
+            }
+            posting.add(id);
+            for (int length = 1; length <= PREFIX_LENGTH
+                    && length <= word.length(); length++) {
+                String prefix = word.substring(0, length);
+                posting = prefixes.get(prefix);
+                if (posting == null)
+                    prefixes.put(prefix, posting = new Posting());
+                posting.add(id);
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Index the new metadata of a track
+     * 
+     * @param id
+     *            Track id
+     */
+    @Override
+    public void update(int id) {
+        add(id);
+        size--;
+        stale++;
+        updated.set(id);
+    }
+
+    /**
+     * Forget a removed track. Its entries stay until the index is built
+     * again.
+     * 
+     * @param id
+     *            Track id
+     */
+    @Override
+    public void remove(int id) {
+        size--;
+        stale++;
+    }
+
+    /**
+     * Check if the index should be built again
+     * 
+     * @return true if most entries are stale
+     */
+    @Override
+    public boolean isStale() {
+        return stale > MIN_STALE && stale > size;
+    }
+
+    /**
+     * Find the tracks matching a search
+     * 
+     * @param text
+     *            Words to search for
+     * @return Track ids. Removed tracks may be included
+     */
+    public BitSet search(String text) {
+        List<String> terms = tokenize(text);
+        BitSet ids = new BitSet(trackStore.size());
+        if (terms.isEmpty())
+            return ids;
+        // Longer words match fewer songs, so they go first
+        Collections.sort(terms, new Comparator<String>() {
+            public int compare(String a, String b) {
+                return b.length() - a.length();
+            }
+        });
+        set(ids, terms.get(0));
+        for (int i = 1; i < terms.size() && !ids.isEmpty(); i++) {
+            BitSet matching = new BitSet(trackStore.size());
+            set(matching, terms.get(i));
+            ids.and(matching);
+        }
+        // Changed tracks may have matched by their old words
+        BitSet changed = (BitSet) ids.clone();
+        changed.and(updated);
+        for (int id = changed.nextSetBit(0); id > -1; id = changed
+                .nextSetBit(id + 1))
+            if (!matches(words(id), terms))
+                ids.clear(id);
+        return ids;
+    }
+
+    /**
+     * Split a text in words, in lower case and without accents
+     * 
+     * @param text
+     *            Text. May be null
+     * @return Words
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<String>();
+        if (text == null)
+            return tokens;
+        String normalized = text.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < normalized.length(); i++)
+            if (normalized.charAt(i) > 0x7F) {
+                normalized = Normalizer.normalize(normalized,
+                        Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+                break;
+            }
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean letter = i < normalized.length()
+                    && Character.isLetterOrDigit(normalized.charAt(i));
+            if (letter && start < 0)
+                start = i;
+            else if (!letter && start > -1) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Set the tracks having a word that starts with a term
+     * 
+     * @param ids
+     *            Track ids
+     * @param term
+     *            Term
+     */
+    private void set(BitSet ids, String term) {
+        if (term.length() <= PREFIX_LENGTH) {
+            Posting posting = prefixes.get(term);
+            if (posting != null)
+                posting.set(ids);
+            return;
+        }
+        for (Posting posting : sortedWords.subMap(term, true,
+                term + Character.MAX_VALUE, false).values())
+            posting.set(ids);
+    }
+
+    /**
+     * Get the words of a track
+     * 
+     * @param id
+     *            Track id
+     * @return Words of its artist, title and album
+     */
+    private List<String> words(int id) {
+        List<String> words = tokenize(trackStore.getArtist(id));
+        words.addAll(tokenize(trackStore.getTitle(id)));
+        words.addAll(tokenize(trackStore.getAlbum(id)));
+        return words;
+    }
+
+    /**
+     * Check if every term starts a word
+     * 
+     * @param words
+     *            Words of a track
+     * @param terms
+     *            Terms
+     * @return true if the track matches
+     */
+    private static boolean matches(List<String> words, List<String> terms) {
+        for (String term : terms) {
+            boolean found = false;
+            for (String word : words)
+                found |= word.startsWith(term);
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Track ids of a word or prefix, in the order they were added
+     */
+    private static class Posting {
+        /** Track ids */
+        private int[] ids = new int[2];
+
+        /** Number of track ids */
+        private int count = 0;
+
+        /**
+         * Add a track. Words of a track are added together, so a track
+         * repeated is the last one.
+         * 
+         * @param id
+         *            Track id
+         */
+        void add(int id) {
+            if (count > 0 && ids[count - 1] == id)
+                return;
+            if (count == ids.length)
+                ids = Arrays.copyOf(ids, count * 2);
+            ids[count++] = id;
+        }
+
+        /**
+         * Set every track
+         * 
+         * @param bits
+         *            Track ids
+         */
+        void set(BitSet bits) {
+            for (int i = 0; i < count; i++)
+                bits.set(ids[i]);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,223 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Random playing order of a list of track ids, built one step at a time.
+ * 
+ * It is a Fisher-Yates shuffle where the pool of songs not played yet is
+ * the original array plus a sparse map of the slots changed so far, so
+ * starting is instant and every step is O(1) whatever the size of the list.
+ * Songs added later join the pool. Removed songs are not taken out of it;
+ * the caller skips them when they come out.
+ * 
+ * Songs already played are kept in order, to go back and forth.
+ * 
+ * Not thread safe.
+ * 
+ * @author birelian
+ * 
+ */
+public class ShuffleOrder {
+    /** Random numbers */
+    private final Random random;
+
+    /** Track ids when the shuffle started. Never written */
+    private final int[] base;
+
+    /** Pool slots whose track id is not the one in the base array */
+    private final Map<Integer, Integer> swaps = new HashMap<Integer, Integer>();
+
+    /** Songs left in the pool, in slots 0 to remaining - 1 */
+    private int remaining;
+
+    /** Track id played when the shuffle started. Not in the order again */
+    private int started = -1;
+
+    /** Track ids played so far, in order */
+    private int[] history = new int[16];
+
+    /** Number of played track ids */
+    private int historySize = 0;
+
+    /** Position of the current song in the history, or -1 */
+    private int position = -1;
+
+    /**
+     * Constructor
+     * 
+     * @param trackIds
+     *            Track ids. The first size ones must not change
+     * @param size
+     *            Number of songs
+     * @param random
+     *            Random numbers
+     */
+    public ShuffleOrder(int[] trackIds, int size, Random random) {
+        this.base = trackIds;
+        this.remaining = size;
+        this.random = random;
+    }
+
+    /**
+     * Start with a song already playing
+     * 
+     * @param id
+     *            Track id of the current song
+     */
+    public void start(int id) {
+        started = id;
+        historySize = 0;
+        record(id);
+        position = 0;
+    }
+
+    /**
+     * Add songs to the pool
+     * 
+     * @param ids
+     *            Track ids
+     */
+    public void add(int[] ids) {
+        // Slots past the pool are free
+        for (int id : ids)
+            swaps.put(remaining++, id);
+    }
+
+    /**
+     * Look at the next song without moving
+     * 
+     * @return Track id, or -1 if every song has been played
+     */
+    public int peek() {
+        if (position + 1 < historySize)
+            return history[position + 1];
+        int id = draw();
+        if (id > -1)
+            record(id);
+        return id;
+    }
+
+    /**
+     * Move to the next song
+     * 
+     * @return Track id, or -1 if every song has been played
+     */
+    public int next() {
+        int id = peek();
+        if (id > -1)
+            position++;
+        return id;
+    }
+
+    /**
+     * Move back to the previous song
+     * 
+     * @return Track id, or -1 if at the first song
+     */
+    public int previous() {
+        if (position <= 0)
+            return -1;
+        return history[--position];
+    }
+
+    /**
+     * Move to a song chosen by the user. If it is not the next one, it is
+     * played out of order, right after the current one, and stays in the
+     * pool.
+     * 
+     * @param id
+     *            Track id
+     */
+    public void moveTo(int id) {
+        if (position > -1 && history[position] == id)
+            return;
+        if (position + 1 < historySize && history[position + 1] == id) {
+            position++;
+            return;
+        }
+        record(id);
+        System.arraycopy(history, position + 1, history, position + 2,
+                historySize - position - 2);
+        history[++position] = id;
+    }
+
+    /**
+     * Forget the next song, found removed by {@link #peek()}
+     */
+    public void discardNext() {
+        if (position + 1 >= historySize)
+            return;
+        System.arraycopy(history, position + 2, history, position + 1,
+                historySize - position - 2);
+        historySize--;
+    }
+
+    /**
+     * Take a random song out of the pool
+     * 
+     * @return Track id, or -1 if the pool is empty
+     */
+    private int draw() {
+        while (remaining > 0) {
+            int slot = random.nextInt(remaining);
+            int id = slot(slot);
+            // The last slot takes the place of the chosen one
+            int last = --remaining;
+            if (slot != last)
+                swaps.put(slot, slot(last));
+            swaps.remove(last);
+            if (id != started)
+                return id;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the track id of a pool slot
+     * 
+     * @param slot
+     *            Pool slot
+     * @return Track id
+     */
+    private int slot(int slot) {
+        Integer id = swaps.get(slot);
+        return id != null ? id : base[slot];
+    }
+
+    /**
+     * Add a song to the history
+     * 
+     * @param id
+     *            Track id
+     */
+    private void record(int id) {
+        if (historySize == history.length)
+            history = Arrays.copyOf(history, historySize * 2);
+        history[historySize++] = id;
+    }
+}
\ No newline at end of file
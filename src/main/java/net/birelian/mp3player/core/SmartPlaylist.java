@@ -0,0 +1,311 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Playlist made of the songs matching some rules, like
+ * 
+ * <pre>
+ * artist = "Some artist" and bitrate &gt;= 256 and length &lt; 5 min
+ * </pre>
+ * 
+ * Every rule must match. Artists and albums are compared as they are, and
+ * can be quoted. Lengths are in seconds, minutes ("5 min") or "m:ss", bit
+ * rates in kbps and sample rates in Hz. A unit that doesn't fit the field,
+ * like "bitrate &gt; 5 min", is an error.
+ * 
+ * Rules are evaluated by the song manager, over a {@link TrackIndex}.
+ * 
+ * @author birelian
+ * 
+ */
+public class SmartPlaylist {
+
+    /**
+     * Song metadata rules can be about
+     */
+    public enum Field {
+        ARTIST("artist", false),
+        ALBUM("album", false),
+        LENGTH("length", true, "min", "m", "sec", "s"),
+        BIT_RATE("bitrate", true, "kbps"),
+        SAMPLE_RATE("samplerate", true, "hz");
+
+        /** Name in rules */
+        private final String label;
+
+        /** Is it a number? */
+        private final boolean numeric;
+
+        /** Units numbers may have */
+        private final List<String> units;
+
+        /**
+         * Constructor
+         * 
+         * @param label
+         *            Name in rules
+         * @param numeric
+         *            true if it is a number
+         * @param units
+         *            Units numbers may have
+         */
+        private Field(String label, boolean numeric, String... units) {
+            this.label = label;
+            this.numeric = numeric;
+            this.units = Arrays.asList(units);
+        }
+
+        /**
+         * Check if it is a number
+         * 
+         * @return true if it is a number, false if it is a string
+         */
+        public boolean isNumeric() {
+            return numeric;
+        }
+
+        /**
+         * Check if numbers may have a unit
+         * 
+         * @param unit
+         *            Unit, in lower case
+         * @return true if it is a unit of this field
+         */
+        public boolean hasUnit(String unit) {
+            return units.contains(unit);
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /** Rule: field, operator and value */
+    private static final Pattern RULE = Pattern
+            .compile("\\s*(\\w+)\\s*(<=|>=|=|<|>)\\s*(.*?)\\s*");
+
+    /** "and" between rules, not inside quotes */
+    private static final Pattern AND = Pattern
+            .compile("\\s+(?i:and)\\s+(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
+
+    /** Number, with its unit if any */
+    private static final Pattern NUMBER = Pattern
+            .compile("(\\d+)(?::(\\d\\d))?\\s*(min|m|s|sec|kbps|hz)?",
+                    Pattern.CASE_INSENSITIVE);
+
+    /** Rules, as written */
+    private final String text;
+
+    /** Parsed rules */
+    private final List<Condition> conditions = new ArrayList<Condition>();
+
+    /**
+     * Constructor
+     * 
+     * @param text
+     *            Rules
+     * @throws IllegalArgumentException
+     *             If the rules can't be understood
+     */
+    public SmartPlaylist(String text) {
+        this.text = text;
+        if (text == null || text.trim().length() == 0)
+            throw new IllegalArgumentException("No rules");
+        for (String rule : AND.split(text.trim()))
+            conditions.add(parse(rule));
+    }
+
+    /**
+     * Get the rules
+     * 
+     * @return Rules, all of them must match
+     */
+    public List<Condition> getConditions() {
+        return Collections.unmodifiableList(conditions);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Parse a rule
+     * 
+     * @param rule
+     *            Rule
+     * @return Condition
+     * @throws IllegalArgumentException
+     *             If the rule can't be understood
+     */
+    private static Condition parse(String rule) {
+        Matcher matcher = RULE.matcher(rule);
+        if (!matcher.matches())
+            throw new IllegalArgumentException("Wrong rule: " + rule);
+        Field field = null;
+        for (Field candidate : Field.values())
+            if (candidate.label.equalsIgnoreCase(matcher.group(1)))
+                field = candidate;
+        if (field == null)
+            throw new IllegalArgumentException("Unknown field: "
+                    + matcher.group(1));
+        String operator = matcher.group(2);
+        String value = matcher.group(3);
+        if (value.length() > 1 && value.startsWith("\"")
+                && value.endsWith("\""))
+            value = value.substring(1, value.length() - 1);
+        if (!field.isNumeric()) {
+            if (!operator.equals("="))
+                throw new IllegalArgumentException("Only = is allowed for "
+                        + field);
+            return new Condition(field, value, 0, 0);
+        }
+        long number = parseNumber(field, value);
+        if (operator.equals("="))
+            return new Condition(field, null, number, number);
+        if (operator.equals("<"))
+            return new Condition(field, null, Integer.MIN_VALUE, number - 1);
+        if (operator.equals("<="))
+            return new Condition(field, null, Integer.MIN_VALUE, number);
+        if (operator.equals(">"))
+            return new Condition(field, null, number + 1, Integer.MAX_VALUE);
+        return new Condition(field, null, number, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Parse a number
+     * 
+     * @param field
+     *            Field the number is for
+     * @param value
+     *            Number, with its unit if any
+     * @return Number, in seconds for lengths
+     * @throws IllegalArgumentException
+     *             If it is not a number, or its unit doesn't fit the field
+     */
+    private static long parseNumber(Field field, String value) {
+        Matcher matcher = NUMBER.matcher(value);
+        if (!matcher.matches())
+            throw new IllegalArgumentException("Not a number: " + value);
+        String unit = matcher.group(3) != null ? matcher.group(3)
+                .toLowerCase(Locale.ROOT) : null;
+        if (unit != null && !field.hasUnit(unit)
+                || matcher.group(2) != null && field != Field.LENGTH)
+            throw new IllegalArgumentException("Wrong unit for " + field
+                    + ": " + value);
+        try {
+            long number = Long.parseLong(matcher.group(1));
+            if (matcher.group(2) != null)
+                // m:ss
+                number = number * 60 + Integer.parseInt(matcher.group(2));
+            else if (unit != null && unit.startsWith("m"))
+                number *= 60;
+            if (number > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Too big: " + value);
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value);
+        }
+    }
+
+    /**
+     * One rule: a field equal to a string, or within a range of numbers
+     */
+    public static class Condition {
+        /** Field */
+        private final Field field;
+
+        /** String value. Null for numeric fields */
+        private final String value;
+
+        /** Lowest number, included */
+        private final int min;
+
+        /** Highest number, included */
+        private final int max;
+
+        /**
+         * Constructor
+         * 
+         * @param field
+         *            Field
+         * @param value
+         *            String value
+         * @param min
+         *            Lowest number
+         * @param max
+         *            Highest number
+         */
+        private Condition(Field field, String value, long min, long max) {
+            this.field = field;
+            this.value = value;
+            this.min = (int) Math.max(min, Integer.MIN_VALUE);
+            this.max = (int) Math.min(max, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Get the field
+         * 
+         * @return Field
+         */
+        public Field getField() {
+            return field;
+        }
+
+        /**
+         * Get the string value
+         * 
+         * @return Value the field must be equal to. Null for numeric fields
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Get the lowest number
+         * 
+         * @return Lowest number, included
+         */
+        public int getMin() {
+            return min;
+        }
+
+        /**
+         * Get the highest number
+         * 
+         * @return Highest number, included
+         */
+        public int getMax() {
+            return max;
+        }
+    }
+}
\ No newline at end of file
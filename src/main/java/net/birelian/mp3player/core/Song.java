@@ -25,7 +25,6 @@ import java.io.File;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jaudiotagger.audio.AudioFileIO;
 import org.jaudiotagger.audio.mp3.MP3AudioHeader;
 import org.jaudiotagger.audio.mp3.MP3File;
 import org.jaudiotagger.tag.FieldKey;
@@ -34,12 +33,20 @@ import org.jaudiotagger.tag.Tag;
 /**
  * Stores information about a song.
  * 
+ * Kept small, as libraries may have millions of songs: numbers are stored as
+ * primitives and formatted only when displayed. Songs of the playlist are
+ * built from the {@link TrackStore}, whose dictionaries share the strings
+ * repeated across many songs (artist, album, channels, format).
+ * 
  * @author birelian
  * 
  */
 public class Song {
-    /** Logger */
-    private final Logger logger = LogManager.getLogger(Song.class);
+    /** Logger. Shared by every song */
+    private static final Logger logger = LogManager.getLogger(Song.class);
+
+    /** Track id in the song manager store. -1 if not stored */
+    private int id = -1;
 
     /** Absolute path */
     private String filePath;
@@ -53,20 +60,23 @@ public class Song {
     /** Song album */
     private String album;
 
-    /** Song bit rate */
-    private String bitRate;
+    /** Song bit rate in kbps. Average bit rate if variable */
+    private int bitRate;
+
+    /** Is the bit rate variable? */
+    private boolean variableBitRate;
 
-    /** Song sample rate */
-    private String sampleRate;
+    /** Song sample rate in Hz */
+    private int sampleRate;
 
     /** Song channels */
     private String channels;
 
-    /** Song channels */
+    /** Song format */
     private String format;
 
     /** Number of frames */
-    private long frames;
+    private int frames;
 
     /** Song length measured in seconds */
     private int length;
@@ -86,28 +96,29 @@ public class Song {
     public Song(File file) {
         filePath = file.getAbsolutePath();
         try {
-            // Used to read mp3 header
-            MP3AudioHeader audioHeader = new MP3AudioHeader(file);
-
-            // Used to read mp3 tags
-            MP3File mp3File = (MP3File) AudioFileIO.read(file);
+            // One pass: ID3 tags plus the first frames and Xing/VBRI header
+            MP3File mp3File = new MP3File(file, MP3File.LOAD_IDV1TAG
+                    | MP3File.LOAD_IDV2TAG, true);
+            MP3AudioHeader audioHeader = mp3File.getMP3AudioHeader();
             Tag tag = mp3File.getTag();
 
             // mp3 header information
             length = audioHeader.getTrackLength();
-            bitRate = audioHeader.getBitRate() + "kbps";
-            sampleRate = audioHeader.getSampleRate() + "Hz";
-            channels = audioHeader.getChannels();
-            format = audioHeader.getFormat();
-            frames = audioHeader.getNumberOfFrames();
+            bitRate = (int) audioHeader.getBitRateAsNumber();
+            variableBitRate = audioHeader.isVariableBitRate();
+            sampleRate = audioHeader.getSampleRateAsNumber();
+            setChannels(audioHeader.getChannels());
+            setFormat(audioHeader.getFormat());
+            frames = (int) audioHeader.getNumberOfFrames();
 
             // mp3 Tag information
-            title = tag.getFirst(FieldKey.TITLE);
+            title = tag != null ? tag.getFirst(FieldKey.TITLE) : "";
             if (title.length() == 0)
                 title = "Unknown title";
-            artist = tag.getFirst(FieldKey.ARTIST);
-            if (artist.length() == 0)
-                artist = "Unknown artist";
+            String tagArtist = tag != null ? tag.getFirst(FieldKey.ARTIST)
+                    : "";
+            setArtist(tagArtist.length() != 0 ? tagArtist : "Unknown artist");
+            setAlbum(tag != null ? tag.getFirst(FieldKey.ALBUM) : "");
 
             logger.info("Created song: " + title);
 
@@ -117,6 +128,25 @@ public class Song {
         }
     }
 
+    /**
+     * Get track id
+     * 
+     * @return Track id in the song manager store, or -1 if not stored
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Set track id
+     * 
+     * @param id
+     *            Track id in the song manager store
+     */
+    public void setId(int id) {
+        this.id = id;
+    }
+
     /**
      * Get file path
      * 
@@ -216,9 +246,9 @@ public class Song {
     /**
      * Get song bit rate
      * 
-     * @return Song bit rate
+     * @return Song bit rate in kbps
      */
-    public String getBitRate() {
+    public int getBitRate() {
         return bitRate;
     }
 
@@ -226,18 +256,46 @@ public class Song {
      * Set song bit rate
      * 
      * @param bitRate
-     *            Song bit rate
+     *            Song bit rate in kbps
      */
-    public void setBitRate(String bitRate) {
+    public void setBitRate(int bitRate) {
         this.bitRate = bitRate;
     }
 
+    /**
+     * Check if the bit rate is variable
+     * 
+     * @return true if variable
+     */
+    public boolean isVariableBitRate() {
+        return variableBitRate;
+    }
+
+    /**
+     * Set if the bit rate is variable
+     * 
+     * @param variableBitRate
+     *            true if variable
+     */
+    public void setVariableBitRate(boolean variableBitRate) {
+        this.variableBitRate = variableBitRate;
+    }
+
+    /**
+     * Get song bit rate for displaying
+     * 
+     * @return Bit rate like "128kbps", or "~192kbps" if variable
+     */
+    public String getBitRateText() {
+        return (variableBitRate ? "~" : "") + bitRate + "kbps";
+    }
+
     /**
      * Get song sample rate
      * 
-     * @return Song sample rate
+     * @return Song sample rate in Hz
      */
-    public String getSampleRate() {
+    public int getSampleRate() {
         return sampleRate;
     }
 
@@ -245,12 +303,21 @@ public class Song {
      * Set song sample rate
      * 
      * @param sampleRate
-     *            Song sample rate
+     *            Song sample rate in Hz
      */
-    public void setSampleRate(String sampleRate) {
+    public void setSampleRate(int sampleRate) {
         this.sampleRate = sampleRate;
     }
 
+    /**
+     * Get song sample rate for displaying
+     * 
+     * @return Sample rate like "44100Hz"
+     */
+    public String getSampleRateText() {
+        return sampleRate + "Hz";
+    }
+
     /**
      * Get song channels
      * 
@@ -305,6 +372,24 @@ public class Song {
      *            Song number of frames
      */
     public void setFrames(long frames) {
-        this.frames = frames;
+        this.frames = (int) frames;
+    }
+
+    /**
+     * Songs built from the same track are equal. Songs not stored are only
+     * equal to themselves.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (id < 0 || !(obj instanceof Song))
+            return false;
+        return id == ((Song) obj).id;
+    }
+
+    @Override
+    public int hashCode() {
+        return id < 0 ? System.identityHashCode(this) : id;
     }
-}
+}
\ No newline at end of file
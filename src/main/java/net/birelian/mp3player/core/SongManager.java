@@ -21,14 +21,46 @@
 
 package net.birelian.mp3player.core;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * Manages a list of Song objects.
+ * Manages a list of songs.
+ * 
+ * Song metadata is kept in a {@link TrackStore} and the list itself is just
+ * an array of track ids, so large lists don't hold an object per song. Song
+ * objects are built when asked for; the current song is kept as an object.
+ * 
+ * The current song is a cursor, a position in the list, so moving to the
+ * next or previous song doesn't search the list. Every song added gets its
+ * own track id, so a file added twice is two different songs.
+ * 
+ * The list is edited in the event dispatch thread while the playback thread
+ * moves the cursor. Both work on immutable snapshots: readers just take the
+ * current one, with no lock, and changes publish a new one with a compare
+ * and set. Edits are serialized, so a batch is published at once.
+ * 
+ * In shuffle mode the next and previous songs come from a
+ * {@link ShuffleOrder} instead of the list order.
+ * 
+ * Songs in the up next queue are played before the next song of the list,
+ * without moving them in the list. A queued song becomes the current one,
+ * and the list goes on from there.
  * 
  * @author birelian
  * 
@@ -37,17 +69,146 @@ public class SongManager {
     /** Logger */
     private final Logger logger = LogManager.getLogger(SongManager.class);
 
-    /** List of songs */
-    private List<Song> songList;
+    /** Song metadata */
+    private final TrackStore trackStore;
+
+    /** Current list and cursor */
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>(
+            new Snapshot(new int[16], 0, -1, null));
+
+    /**
+     * Track ids by file path. A file may be in the list more than once. Only
+     * used while editing, so guarded by this object. Built the first time it
+     * is needed, so paths of a restored list are not read at startup
+     */
+    private NavigableMap<String, int[]> pathIndex;
+
+    /**
+     * Metadata indexes for smart playlists. Built the first time a smart
+     * playlist is evaluated, then kept up to date
+     */
+    private final LiveIndex<TrackIndex> trackIndex = new LiveIndex<TrackIndex>() {
+        TrackIndex build(int[] trackIds, int count) {
+            return new TrackIndex(trackStore, trackIds, count);
+        }
+    };
+
+    /**
+     * Words of song artists, titles and albums. Built the first time a
+     * search is done, then kept up to date
+     */
+    private final LiveIndex<SearchIndex> searchIndex = new LiveIndex<SearchIndex>() {
+        SearchIndex build(int[] trackIds, int count) {
+            return new SearchIndex(trackStore, trackIds, count);
+        }
+    };
+
+    /** Shuffle order, or null if not shuffling. Guarded by itself */
+    private volatile ShuffleOrder shuffle;
 
-    /** Current song */
-    private Song currentSong;
+    /** Random numbers for shuffling */
+    private final Random random = new Random();
+
+    /** Up next queue. Track ids of songs in the list, played first */
+    private final Deque<Integer> queue = new ConcurrentLinkedDeque<Integer>();
 
     /**
-     * Default constructor. Creates an empty list of Song objects.
+     * Default constructor. Creates an empty list of songs, stored off-heap if
+     * the wwtmp3.offHeapTracks system property is true.
      */
     public SongManager() {
-        songList = new ArrayList<Song>();
+        this(new TrackStore(Boolean.getBoolean("wwtmp3.offHeapTracks")));
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param trackStore
+     *            Track store. Its tracks, if any, make up the list, in track
+     *            id order. None of them may have been removed
+     */
+    public SongManager(TrackStore trackStore) {
+        this.trackStore = trackStore;
+        int size = trackStore.size();
+        if (size > 0) {
+            int[] trackIds = new int[size];
+            for (int i = 0; i < size; i++)
+                trackIds[i] = i;
+            snapshot.set(new Snapshot(trackIds, size, 0, trackStore.get(0)));
+        }
+    }
+
+    /**
+     * Get the track store
+     * 
+     * @return Track store holding the metadata of every song
+     */
+    public TrackStore getTrackStore() {
+        return trackStore;
+    }
+
+    /**
+     * Get the number of songs
+     * 
+     * @return Number of songs
+     */
+    public int size() {
+        return snapshot.get().size;
+    }
+
+    /**
+     * Get the track id of a song
+     * 
+     * @param position
+     *            Position in the list
+     * @return Track id
+     */
+    public int getTrackId(int position) {
+        return snapshot.get().trackIds[position];
+    }
+
+    /**
+     * Get every track id at once
+     * 
+     * @return Track ids, in playing order
+     */
+    public int[] getTrackIds() {
+        Snapshot list = snapshot.get();
+        return Arrays.copyOf(list.trackIds, list.size);
+    }
+
+    /**
+     * Get a song
+     * 
+     * @param position
+     *            Position in the list
+     * @return Song
+     */
+    public Song getSong(int position) {
+        Snapshot list = snapshot.get();
+        return song(list, list.trackIds[position]);
+    }
+
+    /**
+     * Get the position of a song
+     * 
+     * @param song
+     *            Song
+     * @return Position in the list, or -1 if not found
+     */
+    public int indexOf(Song song) {
+        return snapshot.get().indexOf(song);
+    }
+
+    /**
+     * Get the position of a track
+     * 
+     * @param trackId
+     *            Track id
+     * @return Position in the list, or -1 if not found
+     */
+    public int indexOf(int trackId) {
+        return snapshot.get().indexOf(trackId);
     }
 
     /**
@@ -56,7 +217,39 @@ public class SongManager {
      * @return Current song
      */
     public Song getCurrentSong() {
-        return currentSong;
+        return snapshot.get().currentSong;
+    }
+
+    /**
+     * Get the position of the current song
+     * 
+     * @return Position in the list, or -1 if there is no current song
+     */
+    public int getCurrentPosition() {
+        return snapshot.get().current;
+    }
+
+    /**
+     * Check if shuffling
+     * 
+     * @return true if the next and previous songs are random
+     */
+    public boolean isShuffle() {
+        return shuffle != null;
+    }
+
+    /**
+     * Set shuffle mode. Starting a new shuffle doesn't depend on the size of
+     * the list.
+     * 
+     * @param shuffle
+     *            true to play the songs in random order
+     */
+    public synchronized void setShuffle(boolean shuffle) {
+        if (shuffle == isShuffle())
+            return;
+        this.shuffle = shuffle ? newShuffleOrder() : null;
+        logger.info("Shuffle " + (shuffle ? "on" : "off"));
     }
 
     /**
@@ -66,23 +259,148 @@ public class SongManager {
      *            Current song
      */
     public void setCurrentSong(Song currentSong) {
-        this.currentSong = currentSong;
-        logger.info("Current song set to: " + currentSong.getTitle());
+        Snapshot list;
+        do {
+            list = snapshot.get();
+        } while (!moveTo(list, list.indexOf(currentSong), currentSong));
+        shuffleTo(currentSong);
+        unqueue(currentSong);
+    }
+
+    /**
+     * Set current song by its position
+     * 
+     * @param position
+     *            Position in the list
+     */
+    public void setCurrentPosition(int position) {
+        Snapshot list;
+        Song song;
+        do {
+            list = snapshot.get();
+            song = song(list, list.trackIds[position]);
+        } while (!moveTo(list, position, song));
+        shuffleTo(song);
+        unqueue(song);
+    }
+
+    /**
+     * Play a song of the list right after the current one, before any other
+     * queued song
+     * 
+     * @param song
+     *            Song in the list
+     */
+    public void queueNext(Song song) {
+        if (song.getId() > -1)
+            queue.addFirst(song.getId());
+    }
+
+    /**
+     * Play a song of the list after every queued song
+     * 
+     * @param song
+     *            Song in the list
+     */
+    public void queue(Song song) {
+        if (song.getId() > -1)
+            queue.addLast(song.getId());
+    }
+
+    /**
+     * Take a song off the up next queue. Songs are taken off when they
+     * become the current song, too.
+     * 
+     * @param song
+     *            Song
+     * @return true if it was queued
+     */
+    public boolean unqueue(Song song) {
+        return song != null && song.getId() > -1
+                && queue.removeFirstOccurrence(song.getId());
+    }
+
+    /**
+     * Get the up next queue
+     * 
+     * @return Track ids, in playing order
+     */
+    public int[] getQueue() {
+        Integer[] ids = queue.toArray(new Integer[0]);
+        int[] queued = new int[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            queued[i] = ids[i];
+        return queued;
+    }
+
+    /**
+     * Empty the up next queue
+     */
+    public void clearQueue() {
+        queue.clear();
     }
 
     /**
      * Add a new song. When first song is added, it becomes the default song.
      * 
      * @param song
-     *            Song to be added
+     *            Song to be added. Its track id is set
      */
     public void add(Song song) {
-        songList.add(song);
-        // If there is just one song, set the currentSong
-        if (songList.size() == 1) {
-            setCurrentSong(song);
+        addAll(Collections.singletonList(song));
+    }
+
+    /**
+     * Add several songs. If the list was empty, the first one becomes the
+     * current song.
+     * 
+     * @param songs
+     *            Songs to be added, in order. Their track ids are set
+     */
+    public synchronized void addAll(Collection<Song> songs) {
+        if (songs.isEmpty())
+            return;
+        int[] ids = new int[songs.size()];
+        int i = 0;
+        for (Song song : songs) {
+            ids[i] = trackStore.add(song);
+            song.setId(ids[i]);
+            index(song.getFilePath(), ids[i]);
+            trackIndex.add(ids[i]);
+            searchIndex.add(ids[i]);
+            i++;
         }
-        logger.info("Added to list: " + song.getTitle());
+        Song first = songs.iterator().next();
+        Snapshot list;
+        Snapshot added;
+        do {
+            list = snapshot.get();
+            // Old snapshots never look past their size, so the array is
+            // shared while it has room
+            int[] trackIds = list.trackIds;
+            int size = list.size + ids.length;
+            if (size > trackIds.length)
+                trackIds = Arrays.copyOf(trackIds,
+                        Math.max(size, trackIds.length * 2));
+            System.arraycopy(ids, 0, trackIds, list.size, ids.length);
+            // If the list was empty, set the currentSong
+            if (list.size == 0)
+                added = new Snapshot(trackIds, size, 0, first);
+            else
+                added = new Snapshot(trackIds, size, list.current,
+                        list.currentSong);
+        } while (!snapshot.compareAndSet(list, added));
+        ShuffleOrder order = shuffle;
+        if (order != null)
+            synchronized (order) {
+                order.add(ids);
+            }
+        if (list.size == 0)
+            logger.info("Current song set to: " + first.getTitle());
+        if (ids.length == 1)
+            logger.info("Added to list: " + first.getTitle());
+        else
+            logger.info("Added to list: " + ids.length + " songs");
     }
 
     /**
@@ -90,18 +408,410 @@ public class SongManager {
      * 
      * @param song
      *            Song to be removed.
+     * @return true if it was the current song
+     */
+    public boolean remove(Song song) {
+        return removeAll(Collections.singletonList(song));
+    }
+
+    /**
+     * Removes several songs in one pass. If the current song is removed, the
+     * first song left after it becomes the current song.
+     * 
+     * @param songs
+     *            Songs to be removed. Songs not in the list are ignored
+     * @return true if the current song was removed
+     */
+    public synchronized boolean removeAll(Collection<Song> songs) {
+        BitSet ids = new BitSet();
+        for (Song song : songs)
+            if (song.getId() > -1)
+                ids.set(song.getId());
+        Snapshot list;
+        Snapshot removed;
+        boolean currentRemoved;
+        do {
+            list = snapshot.get();
+            int[] trackIds = new int[Math.max(16, list.size)];
+            int size = 0;
+            int current = -1;
+            for (int i = 0; i < list.size; i++) {
+                int id = list.trackIds[i];
+                if (ids.get(id))
+                    continue;
+                // The current song, or the first one left after it
+                if (current < 0 && list.current > -1 && i >= list.current)
+                    current = size;
+                trackIds[size++] = id;
+            }
+            if (size == list.size)
+                return false;
+            currentRemoved = list.current > -1
+                    && ids.get(list.trackIds[list.current]);
+            if (!currentRemoved)
+                removed = new Snapshot(trackIds, size, current,
+                        list.currentSong);
+            else if (current > -1)
+                removed = new Snapshot(trackIds, size, current,
+                        trackStore.get(trackIds[current]));
+            else
+                removed = new Snapshot(trackIds, size, -1, null);
+        } while (!snapshot.compareAndSet(list, removed));
+        if (currentRemoved && removed.currentSong != null)
+            logger.info("Current song set to: "
+                    + removed.currentSong.getTitle());
+        for (int id = ids.nextSetBit(0); id > -1; id = ids.nextSetBit(id + 1)) {
+            unindex(id);
+            trackStore.remove(id);
+            trackIndex.remove(id);
+            searchIndex.remove(id);
+        }
+        for (Iterator<Integer> it = queue.iterator(); it.hasNext();)
+            if (ids.get(it.next()))
+                it.remove();
+        logger.info("Removed from list: " + (list.size - removed.size)
+                + " songs");
+        compactStore();
+        // The next song in the shuffle order takes the place of the current
+        if (currentRemoved && shuffle != null)
+            next();
+        return currentRemoved;
+    }
+
+    /**
+     * Store the new metadata of a song in the list
+     * 
+     * @param song
+     *            Song in the list, already changed
+     */
+    public synchronized void update(Song song) {
+        trackStore.set(song.getId(), song);
+        trackIndex.update(song.getId());
+        searchIndex.update(song.getId());
+        compactStore();
+    }
+
+    /**
+     * Free the strings of removed and changed tracks, once there are many.
+     * Track ids don't change, so nothing else has to.
+     */
+    private void compactStore() {
+        if (!trackStore.isStale())
+            return;
+        trackStore.compact();
+        logger.info("Track store compacted");
+    }
+
+    /**
+     * Find the songs matching a smart playlist. Only the candidates of its
+     * most selective rule are read, so it is fast even for large lists.
+     * 
+     * @param smartPlaylist
+     *            Smart playlist
+     * @return Positions in the list of the matching songs, in order
+     */
+    public int[] query(SmartPlaylist smartPlaylist) {
+        return find(smartPlaylist, null);
+    }
+
+    /**
+     * Search songs by the words of their artist, title and album. Every word
+     * searched must start a word of the song.
+     * 
+     * @param text
+     *            Words to search for
+     * @return Positions in the list of the matching songs, in order
+     */
+    public int[] search(String text) {
+        return find(null, text);
+    }
+
+    /**
+     * Find the songs matching a smart playlist and a search
+     * 
+     * @param smartPlaylist
+     *            Smart playlist. Null for any song
+     * @param text
+     *            Words to search for. Null for any song
+     * @return Positions in the list of the matching songs, in order
+     */
+    public int[] find(SmartPlaylist smartPlaylist, String text) {
+        BitSet ids = null;
+        if (smartPlaylist != null) {
+            TrackIndex index = trackIndex.get();
+            synchronized (index) {
+                ids = index.query(smartPlaylist);
+            }
+        }
+        if (text != null && (ids == null || !ids.isEmpty())) {
+            SearchIndex index = searchIndex.get();
+            BitSet found;
+            synchronized (index) {
+                found = index.search(text);
+            }
+            if (ids == null)
+                ids = found;
+            else
+                ids.and(found);
+        }
+        Snapshot list = snapshot.get();
+        if (ids != null)
+            return positions(list, ids);
+        int[] positions = new int[list.size];
+        for (int i = 0; i < positions.length; i++)
+            positions[i] = i;
+        return positions;
+    }
+
+    /**
+     * Get the songs of a file
+     * 
+     * @param path
+     *            Absolute file path
+     * @return Songs in the list read from that file. Empty if none
+     */
+    public synchronized List<Song> getSongs(String path) {
+        int[] ids = pathIndex().get(path);
+        if (ids == null)
+            return Collections.emptyList();
+        Snapshot list = snapshot.get();
+        List<Song> songs = new ArrayList<Song>(ids.length);
+        for (int id : ids)
+            songs.add(song(list, id));
+        return songs;
+    }
+
+    /**
+     * Get the songs of every file under a directory
+     * 
+     * @param directory
+     *            Absolute directory path
+     * @return Songs in the list read from files under that directory
+     */
+    public synchronized List<Song> getSongsUnder(String directory) {
+        String prefix = directory.endsWith(File.separator) ? directory
+                : directory + File.separator;
+        Snapshot list = snapshot.get();
+        List<Song> songs = new ArrayList<Song>();
+        // Paths under the directory are a contiguous range of the index
+        for (int[] ids : pathIndex().subMap(prefix, true,
+                prefix + Character.MAX_VALUE, false).values())
+            for (int id : ids)
+                songs.add(song(list, id));
+        return songs;
+    }
+
+    /**
+     * Get the positions of some tracks in the list
+     * 
+     * @param list
+     *            Snapshot
+     * @param ids
+     *            Track ids. Removed tracks are skipped
+     * @return Positions in the list, in order
+     */
+    private int[] positions(Snapshot list, BitSet ids) {
+        // Both ids and the list are sorted
+        int[] positions = new int[ids.cardinality()];
+        int count = 0;
+        if (positions.length < list.size / 16) {
+            for (int id = ids.nextSetBit(0); id > -1; id = ids
+                    .nextSetBit(id + 1)) {
+                int position = list.indexOf(id);
+                if (position > -1)
+                    positions[count++] = position;
+            }
+        } else {
+            for (int i = 0; i < list.size; i++)
+                if (ids.get(list.trackIds[i]))
+                    positions[count++] = i;
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * Move the cursor
+     * 
+     * @param list
+     *            Snapshot the move is based on
+     * @param position
+     *            Position of the new current song, or -1 if it is not in
+     *            the list
+     * @param song
+     *            New current song, or null
+     * @return false if the list changed in the meantime, so nothing was done
+     */
+    private boolean moveTo(Snapshot list, int position, Song song) {
+        if (!snapshot.compareAndSet(list, new Snapshot(list.trackIds,
+                list.size, position, song)))
+            return false;
+        if (song != null)
+            logger.info("Current song set to: " + song.getTitle());
+        return true;
+    }
+
+    /**
+     * Start a new shuffle order from the current list and song
+     * 
+     * @return Shuffle order
+     */
+    private ShuffleOrder newShuffleOrder() {
+        Snapshot list = snapshot.get();
+        ShuffleOrder order = new ShuffleOrder(list.trackIds, list.size, random);
+        if (list.currentSong != null)
+            order.start(list.currentSong.getId());
+        return order;
+    }
+
+    /**
+     * Move through the shuffle order, skipping removed songs
+     * 
+     * @param order
+     *            Shuffle order
+     * @param forward
+     *            true to move to the next song, false to the previous one
+     * @return New current song, or null if there are no more songs that way
+     */
+    private Song shuffleMove(ShuffleOrder order, boolean forward) {
+        synchronized (order) {
+            while (true) {
+                int id = forward ? order.next() : order.previous();
+                Snapshot list;
+                if (id < 0) {
+                    // Every song played. Same as the end of the list
+                    if (forward)
+                        do {
+                            list = snapshot.get();
+                        } while (!moveTo(list, -1, null));
+                    return null;
+                }
+                Song song = trackStore.get(id);
+                int position;
+                do {
+                    list = snapshot.get();
+                    position = list.indexOf(id);
+                } while (position > -1 && !moveTo(list, position, song));
+                if (position > -1)
+                    return song;
+                // Removed from the list. Skip it
+            }
+        }
+    }
+
+    /**
+     * Move to the first song of the up next queue, skipping removed songs
+     * 
+     * @return New current song, or null if the queue is empty
+     */
+    private Song pollQueue() {
+        Integer id;
+        while ((id = queue.pollFirst()) != null) {
+            Song song = trackStore.get(id);
+            Snapshot list;
+            int position;
+            do {
+                list = snapshot.get();
+                position = list.indexOf(id);
+            } while (position > -1 && !moveTo(list, position, song));
+            if (position > -1) {
+                shuffleTo(song);
+                return song;
+            }
+            // Removed from the list. Skip it
+        }
+        return null;
+    }
+
+    /**
+     * Keep the shuffle order in step with a song chosen by the user
+     * 
+     * @param song
+     *            New current song
+     */
+    private void shuffleTo(Song song) {
+        ShuffleOrder order = shuffle;
+        if (order != null && song != null && song.getId() > -1)
+            synchronized (order) {
+                order.moveTo(song.getId());
+            }
+    }
+
+    /**
+     * Build the Song object of a track. The current song object is reused, so
+     * it keeps its frame index.
+     * 
+     * @param list
+     *            Snapshot
+     * @param id
+     *            Track id
+     * @return Song
+     */
+    private Song song(Snapshot list, int id) {
+        Song song = list.currentSong;
+        if (song != null && song.getId() == id)
+            return song;
+        return trackStore.get(id);
+    }
+
+    /**
+     * Get the path index, building it if needed
+     * 
+     * @return Path index
      */
-    public void remove(Song song) {
-        int songIndex = songList.indexOf(song);
-        // Search
-        if (songList.size() > 0 && songIndex > -1) {
-            // If removing current song, set next song as new current song
-            if (currentSong != null && currentSong.equals(song))
-                next();
-            // Remove the song
-            songList.remove(song);
-            logger.info("Removed from list: " + song.getTitle());
+    private NavigableMap<String, int[]> pathIndex() {
+        if (pathIndex == null) {
+            pathIndex = new TreeMap<String, int[]>();
+            Snapshot list = snapshot.get();
+            for (int i = 0; i < list.size; i++)
+                index(trackStore.getPath(list.trackIds[i]), list.trackIds[i]);
         }
+        return pathIndex;
+    }
+
+    /**
+     * Add a track to the path index, if already built
+     * 
+     * @param path
+     *            File path
+     * @param id
+     *            Track id
+     */
+    private void index(String path, int id) {
+        if (path == null || pathIndex == null)
+            return;
+        int[] ids = pathIndex.get(path);
+        if (ids == null) {
+            ids = new int[] { id };
+        } else {
+            ids = Arrays.copyOf(ids, ids.length + 1);
+            ids[ids.length - 1] = id;
+        }
+        pathIndex.put(path, ids);
+    }
+
+    /**
+     * Remove a track from the path index, if already built
+     * 
+     * @param id
+     *            Track id
+     */
+    private void unindex(int id) {
+        if (pathIndex == null)
+            return;
+        String path = trackStore.getPath(id);
+        int[] ids = path != null ? pathIndex.get(path) : null;
+        if (ids == null)
+            return;
+        if (ids.length == 1) {
+            pathIndex.remove(path);
+            return;
+        }
+        int[] left = new int[ids.length - 1];
+        int j = 0;
+        for (int i = 0; i < ids.length; i++)
+            if (ids[i] != id && j < left.length)
+                left[j++] = ids[i];
+        pathIndex.put(path, left);
     }
 
     /**
@@ -110,58 +820,339 @@ public class SongManager {
      * @return Next song. If there is no next song, returns null
      */
     public Song next() {
-        // In case there is more than one song
-        if (songList.size() > 1) {
-            int currentSongIndex = songList.indexOf(currentSong);
-            // If found and it's not the last song, return next song
-            if (currentSongIndex > -1 && currentSongIndex < songList.size() - 1) {
-                setCurrentSong(songList.get(currentSongIndex + 1));
-                return currentSong;
-            }
+        Song queued = pollQueue();
+        if (queued != null)
+            return queued;
+        ShuffleOrder order = shuffle;
+        if (order != null)
+            return shuffleMove(order, true);
+        Snapshot list;
+        Song next;
+        do {
+            list = snapshot.get();
+            // If there is a current song and it's not the last one
+            if (list.current > -1 && list.current < list.size - 1)
+                next = trackStore.get(list.trackIds[list.current + 1]);
             // Other cases, currentSong = null and return null
-            else {
-                currentSong = null;
-                return null;
+            else
+                next = null;
+        } while (!moveTo(list, next != null ? list.current + 1 : -1, next));
+        return next;
+    }
+
+    /**
+     * Look at the next song without changing the current song.
+     * 
+     * @return Next song. If there is no next song, returns null
+     */
+    public Song peekNext() {
+        for (int id : queue)
+            if (snapshot.get().indexOf(id) > -1)
+                return trackStore.get(id);
+        ShuffleOrder order = shuffle;
+        if (order != null)
+            synchronized (order) {
+                while (true) {
+                    int id = order.peek();
+                    if (id < 0)
+                        return null;
+                    if (snapshot.get().indexOf(id) > -1)
+                        return trackStore.get(id);
+                    // Removed from the list. Skip it
+                    order.discardNext();
+                }
             }
-        }
-        // There is just one song. No next song. Return null.
-        currentSong = null;
+        Snapshot list = snapshot.get();
+        if (list.current > -1 && list.current < list.size - 1)
+            return trackStore.get(list.trackIds[list.current + 1]);
         return null;
     }
 
+    /**
+     * Check if a song is still the one to be played after the current one.
+     * It may have been removed, or another one queued or shuffled in.
+     * 
+     * @param song
+     *            Song. May be null
+     * @return true if it is in the list and it is the next song
+     */
+    public boolean isNext(Song song) {
+        return song != null && indexOf(song) > -1 && song.equals(peekNext());
+    }
+
     /**
      * Retrieve previous song.
      * 
      * @return Previous song. If there is no previous song, returns null.
      */
     public Song previous() {
-        // In case there are more than one song
-        if (songList.size() > 1) {
-            int currentSongIndex = songList.indexOf(currentSong);
-            // If found and it's not the first song, return previous
-            if (currentSongIndex > 0) {
-                setCurrentSong(songList.get(currentSongIndex - 1));
-                return currentSong;
-            }
-            // Other cases, return null
-            else
+        ShuffleOrder order = shuffle;
+        if (order != null)
+            return shuffleMove(order, false);
+        Snapshot list;
+        Song previous;
+        do {
+            list = snapshot.get();
+            // If it's not the first song, return previous
+            if (list.current <= 0)
                 return null;
-        }
-        // There is just one song. No next song.
-        return null;
+            previous = trackStore.get(list.trackIds[list.current - 1]);
+        } while (!moveTo(list, list.current - 1, previous));
+        return previous;
     }
 
     /**
-     * Retrieve the fist song
+     * Retrieve the fist song. When shuffling, a new shuffle order starts
+     * with a random song.
      * 
      * @return First song. If song list is empty, returns null.
      */
     public Song first() {
-        // If the list is not empty, set currentSong to first song.
-        if (!songList.isEmpty()) {
-            setCurrentSong(songList.get(0));
-            return currentSong;
+        if (shuffle != null) {
+            ShuffleOrder order;
+            synchronized (this) {
+                Snapshot list;
+                do {
+                    list = snapshot.get();
+                } while (!moveTo(list, -1, null));
+                order = newShuffleOrder();
+                shuffle = order;
+            }
+            return shuffleMove(order, true);
+        }
+        Snapshot list;
+        Song first;
+        do {
+            list = snapshot.get();
+            // If the list is not empty, set currentSong to first song.
+            if (list.size == 0)
+                return null;
+            first = song(list, list.trackIds[0]);
+        } while (!moveTo(list, 0, first));
+        return first;
+    }
+
+    /**
+     * Index of the tracks of the list, built the first time it is needed and
+     * again when too stale. It is built from a snapshot without holding the
+     * song manager lock, so edits don't wait for it: the edits made in the
+     * meantime are recorded and applied to the new index before it is
+     * published. The index is guarded by itself.
+     * 
+     * @param <T>
+     *            Index type
+     */
+    private abstract class LiveIndex<T extends IncrementalIndex> {
+        /** Index. Null until it is first needed */
+        private volatile T index;
+
+        /**
+         * Tracks added, removed and updated while the index is being built.
+         * Null if not being built. Guarded by the song manager
+         */
+        private BitSet added;
+
+        /** Tracks removed while the index is being built */
+        private BitSet removed;
+
+        /** Tracks updated while the index is being built */
+        private BitSet updated;
+
+        /**
+         * Build the index
+         * 
+         * @param trackIds
+         *            Track ids
+         * @param count
+         *            Number of track ids
+         * @return New index
+         */
+        abstract T build(int[] trackIds, int count);
+
+        /**
+         * Get the index, building it if needed. Only one thread builds it
+         * at a time
+         * 
+         * @return Index
+         */
+        T get() {
+            T current = index;
+            if (isUsable(current))
+                return current;
+            synchronized (this) {
+                current = index;
+                if (isUsable(current))
+                    return current;
+                Snapshot list;
+                synchronized (SongManager.this) {
+                    list = snapshot.get();
+                    added = new BitSet();
+                    removed = new BitSet();
+                    updated = new BitSet();
+                }
+                T built = build(list.trackIds, list.size);
+                synchronized (SongManager.this) {
+                    // Edits made while building
+                    for (int id = removed.nextSetBit(0); id > -1; id = removed
+                            .nextSetBit(id + 1))
+                        built.remove(id);
+                    for (int id = added.nextSetBit(0); id > -1; id = added
+                            .nextSetBit(id + 1))
+                        built.add(id);
+                    for (int id = updated.nextSetBit(0); id > -1; id = updated
+                            .nextSetBit(id + 1))
+                        built.update(id);
+                    added = null;
+                    removed = null;
+                    updated = null;
+                    index = built;
+                }
+                return built;
+            }
+        }
+
+        /**
+         * Index a new track. Called with the song manager lock held
+         * 
+         * @param id
+         *            Track id
+         */
+        void add(int id) {
+            T current = index;
+            if (current != null)
+                synchronized (current) {
+                    current.add(id);
+                }
+            if (added != null)
+                added.set(id);
+        }
+
+        /**
+         * Index the new metadata of a track. Called with the song manager
+         * lock held
+         * 
+         * @param id
+         *            Track id
+         */
+        void update(int id) {
+            T current = index;
+            if (current != null)
+                synchronized (current) {
+                    current.update(id);
+                }
+            // Tracks added in the meantime are read when they are added
+            if (added != null && !added.get(id))
+                updated.set(id);
+        }
+
+        /**
+         * Forget a removed track. Called with the song manager lock held
+         * 
+         * @param id
+         *            Track id
+         */
+        void remove(int id) {
+            T current = index;
+            if (current != null)
+                synchronized (current) {
+                    current.remove(id);
+                }
+            if (added != null) {
+                if (added.get(id))
+                    // Never seen by the new index
+                    added.clear(id);
+                else
+                    removed.set(id);
+                updated.clear(id);
+            }
+        }
+
+        /**
+         * Check if an index can be used
+         * 
+         * @param current
+         *            Index. May be null
+         * @return true if built and not stale
+         */
+        private boolean isUsable(T current) {
+            if (current == null)
+                return false;
+            synchronized (current) {
+                return !current.isStale();
+            }
+        }
+    }
+
+    /**
+     * Immutable state of the list: track ids and cursor. The array may be
+     * shared with newer snapshots, which only write past this size.
+     * 
+     * Track ids are given in increasing order and songs are only appended or
+     * removed, so the track ids are always sorted.
+     */
+    private static final class Snapshot {
+        /** Track ids, in playing order */
+        private final int[] trackIds;
+
+        /** Number of songs */
+        private final int size;
+
+        /** Position of the current song, or -1 if there is no current song */
+        private final int current;
+
+        /** Current song */
+        private final Song currentSong;
+
+        /**
+         * Constructor
+         * 
+         * @param trackIds
+         *            Track ids
+         * @param size
+         *            Number of songs
+         * @param current
+         *            Position of the current song
+         * @param currentSong
+         *            Current song
+         */
+        private Snapshot(int[] trackIds, int size, int current,
+                Song currentSong) {
+            this.trackIds = trackIds;
+            this.size = size;
+            this.current = current;
+            this.currentSong = currentSong;
+        }
+
+        /**
+         * Get the position of a song
+         * 
+         * @param song
+         *            Song
+         * @return Position in the list, or -1 if not found
+         */
+        private int indexOf(Song song) {
+            if (song == null)
+                return -1;
+            return indexOf(song.getId());
+        }
+
+        /**
+         * Get the position of a track
+         * 
+         * @param id
+         *            Track id
+         * @return Position in the list, or -1 if not found
+         */
+        private int indexOf(int id) {
+            if (id < 0)
+                return -1;
+            // The current song and the next one are the usual ones
+            if (current > -1 && trackIds[current] == id)
+                return current;
+            if (current + 1 < size && trackIds[current + 1] == id)
+                return current + 1;
+            int position = Arrays.binarySearch(trackIds, 0, size, id);
+            return position < 0 ? -1 : position;
         }
-        return null;
     }
-}
+}
\ No newline at end of file
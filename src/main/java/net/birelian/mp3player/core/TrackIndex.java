@@ -0,0 +1,490 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+import net.birelian.mp3player.core.SmartPlaylist.Condition;
+
+/**
+ * Indexes of track metadata, to evaluate smart playlists without reading
+ * every track.
+ * 
+ * Numbers (length, bit rate, sample rate) are kept sorted, so a range is
+ * found by binary search. New tracks go to a small unsorted delta, merged
+ * into the sorted part when full. Artists and albums use the codes of the
+ * track store dictionaries: every code has the list of its tracks.
+ * 
+ * Rules are applied from the most selective one: the first gives the
+ * candidates, and the others are intersected with them, or checked one by
+ * one against the track store when there are just a few candidates.
+ * 
+ * The index only grows. When a track changes, its new values are added and
+ * the old ones stay, so changed tracks are checked against the track store;
+ * removed tracks are left for the caller to skip. Once too many entries are
+ * stale the index should be built again.
+ * 
+ * Not thread safe.
+ * 
+ * @author birelian
+ * 
+ */
+public class TrackIndex implements IncrementalIndex {
+    /** Smallest delta of the numeric indexes */
+    private static final int MIN_DELTA = 1024;
+
+    /** Track store */
+    private final TrackStore trackStore;
+
+    /** Tracks by artist code */
+    private final PostingIndex artists = new PostingIndex();
+
+    /** Tracks by album code */
+    private final PostingIndex albums = new PostingIndex();
+
+    /** Tracks by length */
+    private final NumericIndex lengths;
+
+    /** Tracks by bit rate */
+    private final NumericIndex bitRates;
+
+    /** Tracks by sample rate */
+    private final NumericIndex sampleRates;
+
+    /** Number of tracks indexed */
+    private int size = 0;
+
+    /** Number of tracks changed or removed since the index was built */
+    private int stale = 0;
+
+    /** Tracks changed since the index was built */
+    private final BitSet updated = new BitSet();
+
+    /**
+     * Constructor. Indexes a list of tracks at once.
+     * 
+     * @param trackStore
+     *            Track store
+     * @param trackIds
+     *            Track ids
+     * @param count
+     *            Number of track ids
+     */
+    public TrackIndex(TrackStore trackStore, int[] trackIds, int count) {
+        this.trackStore = trackStore;
+        // Room for every track, so they are sorted once
+        lengths = new NumericIndex(count);
+        bitRates = new NumericIndex(count);
+        sampleRates = new NumericIndex(count);
+        for (int i = 0; i < count; i++)
+            add(trackIds[i]);
+        lengths.merge();
+        bitRates.merge();
+        sampleRates.merge();
+    }
+
+    /**
+     * Index a new track
+     * 
+     * @param id
+     *            Track id
+     */
+    @Override
+    public void add(int id) {
+        artists.add(trackStore.getArtistCode(id), id);
+        albums.add(trackStore.getAlbumCode(id), id);
+        lengths.add(trackStore.getLength(id), id);
+        bitRates.add(trackStore.getBitRate(id), id);
+        sampleRates.add(trackStore.getSampleRate(id), id);
+        size++;
+    }
+
+    /**
+     * Index the new metadata of a track
+     * 
+     * @param id
+     *            Track id
+     */
+    @Override
+    public void update(int id) {
+        add(id);
+        size--;
+        stale++;
+        updated.set(id);
+    }
+
+    /**
+     * Forget a removed track. Its entries stay until the index is built
+     * again.
+     * 
+     * @param id
+     *            Track id
+     */
+    @Override
+    public void remove(int id) {
+        size--;
+        stale++;
+    }
+
+    /**
+     * Check if the index should be built again
+     * 
+     * @return true if most entries are stale
+     */
+    @Override
+    public boolean isStale() {
+        return stale > MIN_DELTA && stale > size;
+    }
+
+    /**
+     * Get the tracks matching every rule of a smart playlist
+     * 
+     * @param smartPlaylist
+     *            Smart playlist
+     * @return Track ids. Removed tracks may be included
+     */
+    public BitSet query(SmartPlaylist smartPlaylist) {
+        List<Condition> conditions = smartPlaylist.getConditions();
+        int rules = conditions.size();
+        int[] codes = new int[rules];
+        int[] counts = new int[rules];
+        for (int i = 0; i < rules; i++) {
+            Condition condition = conditions.get(i);
+            if (condition.getField() == SmartPlaylist.Field.ARTIST)
+                codes[i] = trackStore.findArtistCode(condition.getValue());
+            else if (condition.getField() == SmartPlaylist.Field.ALBUM)
+                codes[i] = trackStore.findAlbumCode(condition.getValue());
+            counts[i] = count(condition, codes[i]);
+        }
+        // Most selective rules first
+        Integer[] order = new Integer[rules];
+        for (int i = 0; i < rules; i++)
+            order[i] = i;
+        final int[] sizes = counts;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(sizes[a], sizes[b]);
+            }
+        });
+        BitSet ids = new BitSet(trackStore.size());
+        set(ids, conditions.get(order[0]), codes[order[0]]);
+        int candidates = ids.cardinality();
+        for (int i = 1; i < rules && candidates > 0; i++) {
+            Condition condition = conditions.get(order[i]);
+            int code = codes[order[i]];
+            if (candidates * 8 < counts[order[i]]) {
+                // A few candidates. Check them one by one
+                for (int id = ids.nextSetBit(0); id > -1; id = ids
+                        .nextSetBit(id + 1))
+                    if (!matches(condition, code, id))
+                        ids.clear(id);
+            } else {
+                BitSet matching = new BitSet(trackStore.size());
+                set(matching, condition, code);
+                ids.and(matching);
+            }
+            candidates = ids.cardinality();
+        }
+        // Changed tracks may have matched by their old values
+        BitSet changed = (BitSet) ids.clone();
+        changed.and(updated);
+        for (int id = changed.nextSetBit(0); id > -1; id = changed
+                .nextSetBit(id + 1))
+            for (int i = 0; i < rules; i++)
+                if (!matches(conditions.get(i), codes[i], id))
+                    ids.clear(id);
+        return ids;
+    }
+
+    /**
+     * Count the index entries of a rule
+     * 
+     * @param condition
+     *            Rule
+     * @param code
+     *            Dictionary code of the value, for artists and albums
+     * @return Number of entries, at most
+     */
+    private int count(Condition condition, int code) {
+        switch (condition.getField()) {
+        case ARTIST:
+            return artists.count(code);
+        case ALBUM:
+            return albums.count(code);
+        default:
+            return numeric(condition).count(condition.getMin(),
+                    condition.getMax());
+        }
+    }
+
+    /**
+     * Set the tracks of the index entries of a rule
+     * 
+     * @param ids
+     *            Track ids
+     * @param condition
+     *            Rule
+     * @param code
+     *            Dictionary code of the value, for artists and albums
+     */
+    private void set(BitSet ids, Condition condition, int code) {
+        int[] matching;
+        if (condition.getField() == SmartPlaylist.Field.ARTIST)
+            matching = artists.get(code);
+        else if (condition.getField() == SmartPlaylist.Field.ALBUM)
+            matching = albums.get(code);
+        else
+            matching = numeric(condition).get(condition.getMin(),
+                    condition.getMax());
+        for (int id : matching)
+            ids.set(id);
+    }
+
+    /**
+     * Check a rule against the track store
+     * 
+     * @param condition
+     *            Rule
+     * @param code
+     *            Dictionary code of the value, for artists and albums
+     * @param id
+     *            Track id
+     * @return true if the track matches
+     */
+    private boolean matches(Condition condition, int code, int id) {
+        int value;
+        switch (condition.getField()) {
+        case ARTIST:
+            return trackStore.getArtistCode(id) == code;
+        case ALBUM:
+            return trackStore.getAlbumCode(id) == code;
+        case LENGTH:
+            value = trackStore.getLength(id);
+            break;
+        case BIT_RATE:
+            value = trackStore.getBitRate(id);
+            break;
+        default:
+            value = trackStore.getSampleRate(id);
+        }
+        return value >= condition.getMin() && value <= condition.getMax();
+    }
+
+    /**
+     * Get the index of a numeric rule
+     * 
+     * @param condition
+     *            Rule
+     * @return Numeric index
+     */
+    private NumericIndex numeric(Condition condition) {
+        switch (condition.getField()) {
+        case LENGTH:
+            return lengths;
+        case BIT_RATE:
+            return bitRates;
+        default:
+            return sampleRates;
+        }
+    }
+
+    /**
+     * Tracks by number. Every entry is the value in the high 32 bits and the
+     * track id in the low ones, so sorting entries sorts by value.
+     */
+    private static class NumericIndex {
+        /** Sorted entries */
+        private long[] sorted = new long[0];
+
+        /** Entries added since the last merge */
+        private long[] delta;
+
+        /** Number of entries in the delta */
+        private int deltaSize = 0;
+
+        /**
+         * Constructor
+         * 
+         * @param capacity
+         *            Entries to be added before the first merge
+         */
+        NumericIndex(int capacity) {
+            delta = new long[Math.max(MIN_DELTA, capacity)];
+        }
+
+        /**
+         * Add an entry
+         * 
+         * @param value
+         *            Value
+         * @param id
+         *            Track id
+         */
+        void add(int value, int id) {
+            if (deltaSize == delta.length)
+                merge();
+            delta[deltaSize++] = (long) value << 32 | (id & 0xFFFFFFFFL);
+        }
+
+        /**
+         * Count the entries within a range. The whole delta is counted
+         * 
+         * @param min
+         *            Lowest value, included
+         * @param max
+         *            Highest value, included
+         * @return Number of entries, at most
+         */
+        int count(int min, int max) {
+            return search((long) max << 32 | 0xFFFFFFFFL)
+                    - search((long) min << 32) + deltaSize;
+        }
+
+        /**
+         * Get the track ids within a range
+         * 
+         * @param min
+         *            Lowest value, included
+         * @param max
+         *            Highest value, included
+         * @return Track ids
+         */
+        int[] get(int min, int max) {
+            int from = search((long) min << 32);
+            int to = search((long) max << 32 | 0xFFFFFFFFL);
+            int[] ids = new int[to - from + deltaSize];
+            int count = 0;
+            for (int i = from; i < to; i++)
+                ids[count++] = (int) sorted[i];
+            for (int i = 0; i < deltaSize; i++) {
+                int value = (int) (delta[i] >> 32);
+                if (value >= min && value <= max)
+                    ids[count++] = (int) delta[i];
+            }
+            return Arrays.copyOf(ids, count);
+        }
+
+        /**
+         * Sort the delta into the sorted entries. The delta grows with the
+         * index, so merges get rarer.
+         */
+        void merge() {
+            Arrays.sort(delta, 0, deltaSize);
+            long[] merged = new long[sorted.length + deltaSize];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < sorted.length && j < deltaSize)
+                merged[k++] = sorted[i] <= delta[j] ? sorted[i++]
+                        : delta[j++];
+            while (i < sorted.length)
+                merged[k++] = sorted[i++];
+            while (j < deltaSize)
+                merged[k++] = delta[j++];
+            sorted = merged;
+            deltaSize = 0;
+            delta = new long[Math.max(MIN_DELTA, sorted.length >> 4)];
+        }
+
+        /**
+         * Find the first sorted entry not lower than a key
+         * 
+         * @param key
+         *            Key
+         * @return Position in the sorted entries
+         */
+        private int search(long key) {
+            int low = 0;
+            int high = sorted.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (sorted[middle] < key)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Tracks by dictionary code
+     */
+    private static class PostingIndex {
+        /** Track ids by code */
+        private int[][] postings = new int[16][];
+
+        /** Number of track ids by code */
+        private int[] counts = new int[16];
+
+        /**
+         * Add a track
+         * 
+         * @param code
+         *            Dictionary code. Nothing is added for -1
+         * @param id
+         *            Track id
+         */
+        void add(int code, int id) {
+            if (code < 0)
+                return;
+            if (code >= postings.length) {
+                int length = Math.max(code + 1, postings.length * 2);
+                postings = Arrays.copyOf(postings, length);
+                counts = Arrays.copyOf(counts, length);
+            }
+            int[] ids = postings[code];
+            if (ids == null)
+                ids = postings[code] = new int[4];
+            else if (counts[code] == ids.length)
+                ids = postings[code] = Arrays.copyOf(ids, ids.length * 2);
+            ids[counts[code]++] = id;
+        }
+
+        /**
+         * Count the tracks of a code
+         * 
+         * @param code
+         *            Dictionary code
+         * @return Number of tracks
+         */
+        int count(int code) {
+            return code < 0 || code >= counts.length ? 0 : counts[code];
+        }
+
+        /**
+         * Get the tracks of a code
+         * 
+         * @param code
+         *            Dictionary code
+         * @return Track ids
+         */
+        int[] get(int code) {
+            int count = count(code);
+            return count == 0 ? new int[0] : Arrays.copyOf(postings[code],
+                    count);
+        }
+    }
+}
\ No newline at end of file
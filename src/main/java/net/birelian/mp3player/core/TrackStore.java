@@ -0,0 +1,852 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Columnar storage of song metadata. Every song is a track id, a position in
+ * a set of columns: numbers are kept in primitive int columns and strings are
+ * dictionary encoded, so a million songs cost a few dozen bytes each and no
+ * object per song.
+ * 
+ * Numeric and code columns may be allocated off-heap. Song objects are only
+ * built when a caller needs one, with {@link #get(int)}.
+ * 
+ * The columns can be written to a stream and read back straight from a
+ * mapped file: nothing is copied and strings are only decoded when asked
+ * for, so a large list is ready at once.
+ * 
+ * Track ids are never reused, so a removed track id doesn't match a new song.
+ * A removed track keeps its column slots, 40 bytes, until the list is saved
+ * and restored, which numbers the tracks again. The strings no track uses
+ * anymore are freed by {@link #compact()}, once {@link #isStale()} says
+ * enough tracks have been removed or changed.
+ * 
+ * @author birelian
+ * 
+ */
+public class TrackStore {
+    /** Initial number of tracks */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Bit rate flag of variable bit rate songs */
+    private static final int VARIABLE_BIT_RATE = 0x80000000;
+
+    /** Code of null strings */
+    private static final int NULL_CODE = -1;
+
+    /** Removed or changed tracks allowed before compacting, at least */
+    private static final int MIN_STALE = 1024;
+
+    /** Are the columns allocated off-heap? */
+    private final boolean offHeap;
+
+    /** Number of tracks the columns can hold */
+    private int capacity = INITIAL_CAPACITY;
+
+    /** Number of track ids given so far */
+    private int size = 0;
+
+    /** Are the columns and strings still in the buffer they were read from? */
+    private boolean read = false;
+
+    /** Number of tracks not removed */
+    private int live = 0;
+
+    /** Number of tracks removed or changed since the last compaction */
+    private int stale = 0;
+
+    /** Path codes */
+    private IntBuffer paths;
+
+    /** Title codes */
+    private IntBuffer titles;
+
+    /** Artist codes */
+    private IntBuffer artists;
+
+    /** Album codes */
+    private IntBuffer albums;
+
+    /** Channels codes */
+    private IntBuffer channels;
+
+    /** Format codes */
+    private IntBuffer formats;
+
+    /** Lengths in seconds */
+    private IntBuffer lengths;
+
+    /** Number of frames */
+    private IntBuffer frames;
+
+    /** Bit rates in kbps, plus the variable bit rate flag */
+    private IntBuffer bitRates;
+
+    /** Sample rates in Hz */
+    private IntBuffer sampleRates;
+
+    /** Path dictionary. Paths are unique, but decoded only when needed */
+    private final Dictionary pathDictionary;
+
+    /** Title dictionary */
+    private final Dictionary titleDictionary;
+
+    /** Artist dictionary */
+    private final Dictionary artistDictionary;
+
+    /** Album dictionary */
+    private final Dictionary albumDictionary;
+
+    /** Channels and format dictionary. Just a few values */
+    private final Dictionary audioDictionary;
+
+    /**
+     * Constructor
+     * 
+     * @param offHeap
+     *            true to allocate the columns outside of the Java heap
+     */
+    public TrackStore(boolean offHeap) {
+        this.offHeap = offHeap;
+        pathDictionary = new Dictionary();
+        titleDictionary = new Dictionary();
+        artistDictionary = new Dictionary();
+        albumDictionary = new Dictionary();
+        audioDictionary = new Dictionary();
+        paths = allocate();
+        titles = allocate();
+        artists = allocate();
+        albums = allocate();
+        channels = allocate();
+        formats = allocate();
+        lengths = allocate();
+        frames = allocate();
+        bitRates = allocate();
+        sampleRates = allocate();
+    }
+
+    /**
+     * Constructor of a store read from a buffer written by
+     * {@link #write(DataOutputStream, int[], int)}
+     * 
+     * @param buffer
+     *            Buffer positioned at the first column. It must be writable,
+     *            as tracks may be changed or removed
+     * @param count
+     *            Number of tracks. Their ids are 0 to count - 1
+     * @param offHeap
+     *            true to allocate new columns outside of the Java heap
+     */
+    private TrackStore(ByteBuffer buffer, int count, boolean offHeap) {
+        this.offHeap = offHeap;
+        capacity = count;
+        size = count;
+        live = count;
+        read = true;
+        paths = column(buffer, count);
+        titles = column(buffer, count);
+        artists = column(buffer, count);
+        albums = column(buffer, count);
+        channels = column(buffer, count);
+        formats = column(buffer, count);
+        lengths = column(buffer, count);
+        frames = column(buffer, count);
+        bitRates = column(buffer, count);
+        sampleRates = column(buffer, count);
+        pathDictionary = new Dictionary(buffer);
+        titleDictionary = new Dictionary(buffer);
+        artistDictionary = new Dictionary(buffer);
+        albumDictionary = new Dictionary(buffer);
+        audioDictionary = new Dictionary(buffer);
+    }
+
+    /**
+     * Read a store from a buffer written by
+     * {@link #write(DataOutputStream, int[], int)}, usually a mapped file
+     * 
+     * @param buffer
+     *            Buffer positioned at the first column. It must be writable,
+     *            as tracks may be changed or removed
+     * @param count
+     *            Number of tracks. Their ids are 0 to count - 1
+     * @param offHeap
+     *            true to allocate new columns outside of the Java heap
+     * @return Track store
+     */
+    public static TrackStore read(ByteBuffer buffer, int count, boolean offHeap) {
+        return new TrackStore(buffer, count, offHeap);
+    }
+
+    /**
+     * Write some tracks: the columns, then the strings they use. Tracks get
+     * new ids, their position in the given array.
+     * 
+     * @param out
+     *            Output stream
+     * @param trackIds
+     *            Track ids, in order
+     * @param count
+     *            Number of tracks
+     * @throws IOException
+     */
+    public synchronized void write(DataOutputStream out, int[] trackIds,
+            int count) throws IOException {
+        // Strings of removed tracks are left out
+        Dictionary[] dictionaries = { new Dictionary(), new Dictionary(),
+                new Dictionary(), new Dictionary(), new Dictionary() };
+        writeCodes(out, paths, pathDictionary, dictionaries[0], trackIds,
+                count);
+        writeCodes(out, titles, titleDictionary, dictionaries[1], trackIds,
+                count);
+        writeCodes(out, artists, artistDictionary, dictionaries[2],
+                trackIds, count);
+        writeCodes(out, albums, albumDictionary, dictionaries[3], trackIds,
+                count);
+        writeCodes(out, channels, audioDictionary, dictionaries[4],
+                trackIds, count);
+        writeCodes(out, formats, audioDictionary, dictionaries[4], trackIds,
+                count);
+        for (IntBuffer column : new IntBuffer[] { lengths, frames, bitRates,
+                sampleRates })
+            for (int i = 0; i < count; i++)
+                out.writeInt(column.get(trackIds[i]));
+        for (Dictionary dictionary : dictionaries)
+            dictionary.write(out);
+    }
+
+    /**
+     * Copy the columns and strings read from a buffer, so the buffer is not
+     * used anymore and can be released. Does nothing if the store was not
+     * read from a buffer.
+     */
+    public synchronized void detach() {
+        if (!read)
+            return;
+        read = false;
+        paths = grow(paths);
+        titles = grow(titles);
+        artists = grow(artists);
+        albums = grow(albums);
+        channels = grow(channels);
+        formats = grow(formats);
+        lengths = grow(lengths);
+        frames = grow(frames);
+        bitRates = grow(bitRates);
+        sampleRates = grow(sampleRates);
+        pathDictionary.detach();
+        titleDictionary.detach();
+        artistDictionary.detach();
+        albumDictionary.detach();
+        audioDictionary.detach();
+    }
+
+    /**
+     * Add a song
+     * 
+     * @param song
+     *            Song
+     * @return Track id
+     */
+    public synchronized int add(Song song) {
+        if (size == capacity)
+            grow();
+        int id = size++;
+        put(id, song);
+        live++;
+        return id;
+    }
+
+    /**
+     * Replace the metadata of a track
+     * 
+     * @param id
+     *            Track id
+     * @param song
+     *            Song holding the new metadata
+     */
+    public synchronized void set(int id, Song song) {
+        put(id, song);
+        stale++;
+    }
+
+    /**
+     * Write the metadata of a track
+     * 
+     * @param id
+     *            Track id
+     * @param song
+     *            Song holding the metadata
+     */
+    private void put(int id, Song song) {
+        paths.put(id, pathDictionary.encode(song.getFilePath()));
+        titles.put(id, titleDictionary.encode(song.getTitle()));
+        artists.put(id, artistDictionary.encode(song.getArtist()));
+        albums.put(id, albumDictionary.encode(song.getAlbum()));
+        channels.put(id, audioDictionary.encode(song.getChannels()));
+        formats.put(id, audioDictionary.encode(song.getFormat()));
+        lengths.put(id, song.getLength());
+        frames.put(id, (int) song.getFrames());
+        bitRates.put(id, song.getBitRate()
+                | (song.isVariableBitRate() ? VARIABLE_BIT_RATE : 0));
+        sampleRates.put(id, song.getSampleRate());
+    }
+
+    /**
+     * Remove a track. Its id is not reused.
+     * 
+     * @param id
+     *            Track id
+     */
+    public synchronized void remove(int id) {
+        if (paths.get(id) == NULL_CODE)
+            return;
+        live--;
+        stale++;
+        paths.put(id, NULL_CODE);
+        titles.put(id, NULL_CODE);
+        artists.put(id, NULL_CODE);
+        albums.put(id, NULL_CODE);
+    }
+
+    /**
+     * Check if the store should be compacted
+     * 
+     * @return true if most tracks have been removed or changed since the
+     *         last compaction
+     */
+    public synchronized boolean isStale() {
+        return stale > MIN_STALE && stale > live;
+    }
+
+    /**
+     * Free the strings no track uses anymore. Their codes may be given to
+     * new strings. Track ids, and the codes of strings still used, don't
+     * change.
+     */
+    public synchronized void compact() {
+        detach();
+        retain(pathDictionary, paths);
+        retain(titleDictionary, titles);
+        retain(artistDictionary, artists);
+        retain(albumDictionary, albums);
+        stale = 0;
+    }
+
+    /**
+     * Build a Song object from a track
+     * 
+     * @param id
+     *            Track id
+     * @return New Song object with the track id set
+     */
+    public synchronized Song get(int id) {
+        Song song = new Song();
+        song.setId(id);
+        song.setFilePath(pathDictionary.decode(paths.get(id)));
+        song.setTitle(titleDictionary.decode(titles.get(id)));
+        song.setArtist(artistDictionary.decode(artists.get(id)));
+        song.setAlbum(albumDictionary.decode(albums.get(id)));
+        song.setChannels(audioDictionary.decode(channels.get(id)));
+        song.setFormat(audioDictionary.decode(formats.get(id)));
+        song.setLength(lengths.get(id));
+        song.setFrames(frames.get(id));
+        song.setBitRate(bitRates.get(id) & ~VARIABLE_BIT_RATE);
+        song.setVariableBitRate((bitRates.get(id) & VARIABLE_BIT_RATE) != 0);
+        song.setSampleRate(sampleRates.get(id));
+        return song;
+    }
+
+    /**
+     * Get the file path of a track
+     * 
+     * @param id
+     *            Track id
+     * @return Absolute file path
+     */
+    public synchronized String getPath(int id) {
+        return pathDictionary.decode(paths.get(id));
+    }
+
+    /**
+     * Get the title of a track
+     * 
+     * @param id
+     *            Track id
+     * @return Song title
+     */
+    public synchronized String getTitle(int id) {
+        return titleDictionary.decode(titles.get(id));
+    }
+
+    /**
+     * Get the artist of a track
+     * 
+     * @param id
+     *            Track id
+     * @return Song artist
+     */
+    public synchronized String getArtist(int id) {
+        return artistDictionary.decode(artists.get(id));
+    }
+
+    /**
+     * Get the album of a track
+     * 
+     * @param id
+     *            Track id
+     * @return Song album
+     */
+    public synchronized String getAlbum(int id) {
+        return albumDictionary.decode(albums.get(id));
+    }
+
+    /**
+     * Get the length of a track
+     * 
+     * @param id
+     *            Track id
+     * @return Song length in seconds
+     */
+    public synchronized int getLength(int id) {
+        return lengths.get(id);
+    }
+
+    /**
+     * Get the number of frames of a track
+     * 
+     * @param id
+     *            Track id
+     * @return Number of frames
+     */
+    public synchronized long getFrames(int id) {
+        return frames.get(id);
+    }
+
+    /**
+     * Get the bit rate of a track
+     * 
+     * @param id
+     *            Track id
+     * @return Bit rate in kbps. Average bit rate if variable
+     */
+    public synchronized int getBitRate(int id) {
+        return bitRates.get(id) & ~VARIABLE_BIT_RATE;
+    }
+
+    /**
+     * Get the sample rate of a track
+     * 
+     * @param id
+     *            Track id
+     * @return Sample rate in Hz
+     */
+    public synchronized int getSampleRate(int id) {
+        return sampleRates.get(id);
+    }
+
+    /**
+     * Get the artist code of a track. Tracks with the same artist have the
+     * same code.
+     * 
+     * @param id
+     *            Track id
+     * @return Artist code, or -1 if there is no artist
+     */
+    public synchronized int getArtistCode(int id) {
+        return artists.get(id);
+    }
+
+    /**
+     * Get the album code of a track. Tracks with the same album have the
+     * same code.
+     * 
+     * @param id
+     *            Track id
+     * @return Album code, or -1 if there is no album
+     */
+    public synchronized int getAlbumCode(int id) {
+        return albums.get(id);
+    }
+
+    /**
+     * Find the code of an artist
+     * 
+     * @param artist
+     *            Artist
+     * @return Artist code, or -1 if no track has ever had that artist
+     */
+    public synchronized int findArtistCode(String artist) {
+        return artistDictionary.find(artist);
+    }
+
+    /**
+     * Find the code of an album
+     * 
+     * @param album
+     *            Album
+     * @return Album code, or -1 if no track has ever had that album
+     */
+    public synchronized int findAlbumCode(String album) {
+        return albumDictionary.find(album);
+    }
+
+    /**
+     * Get the text shown for a track in the playlist
+     * 
+     * @param id
+     *            Track id
+     * @return "artist - title"
+     */
+    public synchronized String getDisplayName(int id) {
+        return artistDictionary.decode(artists.get(id)) + " - "
+                + titleDictionary.decode(titles.get(id));
+    }
+
+    /**
+     * Get the number of track ids given so far, removed tracks included
+     * 
+     * @return Number of track ids
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Check if the columns are allocated off-heap
+     * 
+     * @return true if off-heap
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Double the capacity of every column
+     */
+    private void grow() {
+        capacity = Math.max(INITIAL_CAPACITY, capacity * 2);
+        paths = grow(paths);
+        titles = grow(titles);
+        artists = grow(artists);
+        albums = grow(albums);
+        channels = grow(channels);
+        formats = grow(formats);
+        lengths = grow(lengths);
+        frames = grow(frames);
+        bitRates = grow(bitRates);
+        sampleRates = grow(sampleRates);
+    }
+
+    /**
+     * Copy a column into a new one with the current capacity
+     * 
+     * @param column
+     *            Column
+     * @return New column
+     */
+    private IntBuffer grow(IntBuffer column) {
+        IntBuffer grown = allocate();
+        column.clear();
+        grown.put(column);
+        return grown;
+    }
+
+    /**
+     * Write a code column, encoding its strings again
+     * 
+     * @param out
+     *            Output stream
+     * @param column
+     *            Code column
+     * @param from
+     *            Dictionary of the column
+     * @param to
+     *            Dictionary being written
+     * @param trackIds
+     *            Track ids, in order
+     * @param count
+     *            Number of tracks
+     * @throws IOException
+     */
+    private static void writeCodes(DataOutputStream out, IntBuffer column,
+            Dictionary from, Dictionary to, int[] trackIds, int count)
+            throws IOException {
+        for (int i = 0; i < count; i++)
+            out.writeInt(to.encode(from.decode(column.get(trackIds[i]))));
+    }
+
+    /**
+     * Free the strings of a dictionary no track uses
+     * 
+     * @param dictionary
+     *            Dictionary
+     * @param column
+     *            Code column using it
+     */
+    private void retain(Dictionary dictionary, IntBuffer column) {
+        BitSet used = new BitSet(dictionary.size);
+        for (int id = 0; id < size; id++)
+            if (column.get(id) != NULL_CODE)
+                used.set(column.get(id));
+        dictionary.retain(used);
+    }
+
+    /**
+     * Take a column from a buffer
+     * 
+     * @param buffer
+     *            Buffer positioned at the column. Moved past it
+     * @param count
+     *            Number of values
+     * @return Column, sharing the buffer content
+     */
+    private static IntBuffer column(ByteBuffer buffer, int count) {
+        ByteBuffer column = buffer.slice();
+        column.limit(count * 4);
+        buffer.position(buffer.position() + count * 4);
+        return column.asIntBuffer();
+    }
+
+    /**
+     * Allocate a column with the current capacity
+     * 
+     * @return Column
+     */
+    private IntBuffer allocate() {
+        if (offHeap)
+            return ByteBuffer.allocateDirect(capacity * 4)
+                    .order(ByteOrder.nativeOrder()).asIntBuffer();
+        return IntBuffer.allocate(capacity);
+    }
+
+    /**
+     * Codes of a string column. Every distinct string is stored once. Codes
+     * are found with an open addressing table of ints, so a distinct string
+     * costs a few bytes besides itself.
+     * 
+     * A dictionary read from a buffer decodes every string the first time it
+     * is asked for, and builds its table the first time a string is added.
+     */
+    private static class Dictionary {
+        /** Strings by code. Null if not decoded yet */
+        private String[] values;
+
+        /** Number of codes, free ones included */
+        private int size;
+
+        /** Codes freed, to be given to new strings */
+        private int[] free = new int[0];
+
+        /** Number of free codes */
+        private int freeCount = 0;
+
+        /** Hash table of codes plus one. 0 is an empty slot */
+        private int[] table;
+
+        /** Offsets of the encoded strings, plus the end. Null if not read */
+        private IntBuffer offsets;
+
+        /** UTF-8 encoded strings */
+        private ByteBuffer bytes;
+
+        /**
+         * Empty dictionary
+         */
+        Dictionary() {
+            values = new String[16];
+            table = new int[32];
+        }
+
+        /**
+         * Dictionary read from a buffer
+         * 
+         * @param buffer
+         *            Buffer positioned at the dictionary. Moved past it
+         */
+        Dictionary(ByteBuffer buffer) {
+            size = buffer.getInt();
+            offsets = column(buffer, size + 1);
+            int length = offsets.get(size);
+            bytes = buffer.slice();
+            bytes.limit(length);
+            buffer.position(buffer.position() + length);
+            values = new String[Math.max(16, size)];
+        }
+
+        /**
+         * Get the code of a string, adding it if needed
+         * 
+         * @param value
+         *            String
+         * @return Code
+         */
+        int encode(String value) {
+            if (value == null)
+                return NULL_CODE;
+            if (table == null)
+                rehash(Integer.highestOneBit(Math.max(16, size)) * 4);
+            int mask = table.length - 1;
+            int slot = value.hashCode() & mask;
+            while (table[slot] != 0) {
+                if (decode(table[slot] - 1).equals(value))
+                    return table[slot] - 1;
+                slot = (slot + 1) & mask;
+            }
+            int code = freeCount > 0 ? free[--freeCount] : size++;
+            if (code == values.length)
+                values = Arrays.copyOf(values, code * 2);
+            values[code] = value;
+            table[slot] = code + 1;
+            if (size * 2 > table.length)
+                rehash(table.length * 2);
+            return code;
+        }
+
+        /**
+         * Get the code of a string, without adding it
+         * 
+         * @param value
+         *            String
+         * @return Code, or NULL_CODE if not found
+         */
+        int find(String value) {
+            if (value == null || size == 0)
+                return NULL_CODE;
+            if (table == null)
+                rehash(Integer.highestOneBit(Math.max(16, size)) * 4);
+            int mask = table.length - 1;
+            int slot = value.hashCode() & mask;
+            while (table[slot] != 0) {
+                if (decode(table[slot] - 1).equals(value))
+                    return table[slot] - 1;
+                slot = (slot + 1) & mask;
+            }
+            return NULL_CODE;
+        }
+
+        /**
+         * Get the string of a code
+         * 
+         * @param code
+         *            Code
+         * @return String
+         */
+        String decode(int code) {
+            if (code == NULL_CODE)
+                return null;
+            String value = values[code];
+            if (value == null) {
+                byte[] encoded = new byte[offsets.get(code + 1)
+                        - offsets.get(code)];
+                ByteBuffer source = bytes.duplicate();
+                source.position(offsets.get(code));
+                source.get(encoded);
+                value = new String(encoded, StandardCharsets.UTF_8);
+                values[code] = value;
+            }
+            return value;
+        }
+
+        /**
+         * Decode every string read from a buffer, so the buffer is not used
+         * anymore
+         */
+        void detach() {
+            if (bytes == null)
+                return;
+            for (int code = 0; code < size; code++)
+                decode(code);
+            offsets = null;
+            bytes = null;
+        }
+
+        /**
+         * Free the strings not used. Only called once detached
+         * 
+         * @param used
+         *            Codes in use
+         */
+        void retain(BitSet used) {
+            for (int code = 0; code < size; code++)
+                if (values[code] != null && !used.get(code)) {
+                    values[code] = null;
+                    if (freeCount == free.length)
+                        free = Arrays.copyOf(free, Math.max(16,
+                                freeCount * 2));
+                    free[freeCount++] = code;
+                }
+            if (table != null)
+                rehash(table.length);
+        }
+
+        /**
+         * Write every string: count, offsets and UTF-8 bytes
+         * 
+         * @param out
+         *            Output stream
+         * @throws IOException
+         */
+        void write(DataOutputStream out) throws IOException {
+            byte[][] encoded = new byte[size][];
+            out.writeInt(size);
+            int offset = 0;
+            for (int code = 0; code < size; code++) {
+                encoded[code] = decode(code).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(offset);
+                offset += encoded[code].length;
+            }
+            out.writeInt(offset);
+            for (byte[] value : encoded)
+                out.write(value);
+        }
+
+        /**
+         * Build a new hash table
+         * 
+         * @param length
+         *            Table length. A power of two
+         */
+        private void rehash(int length) {
+            table = new int[length];
+            int mask = length - 1;
+            for (int code = 0; code < size; code++) {
+                // Free codes have no string once detached
+                String value = offsets == null ? values[code] : decode(code);
+                if (value == null)
+                    continue;
+                int slot = value.hashCode() & mask;
+                while (table[slot] != 0)
+                    slot = (slot + 1) & mask;
+                table[slot] = code + 1;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Releases a mapping through the JVM internals, which differ before and
+ * after Java 9, instead of waiting for the garbage collector. A released
+ * mapping must never be touched again.
+ * 
+ * @author birelian
+ * 
+ */
+abstract class Unmapper {
+    /** Unmapper of the running JVM. Null if it doesn't allow unmapping */
+    static final Unmapper INSTANCE = create();
+
+    /**
+     * Find the way to unmap buffers in the running JVM
+     * 
+     * @return Unmapper, or null if none is available
+     */
+    private static Unmapper create() {
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod(
+                    "invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            final Object unsafe = field.get(null);
+            return new Unmapper() {
+                void invoke(MappedByteBuffer mapping) throws Exception {
+                    invokeCleaner.invoke(unsafe, mapping);
+                }
+            };
+        } catch (Exception e) {
+        }
+        try {
+            // Java 8: DirectBuffer.cleaner().clean()
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer")
+                    .getMethod("cleaner");
+            final Method clean = Class.forName("sun.misc.Cleaner")
+                    .getMethod("clean");
+            return new Unmapper() {
+                void invoke(MappedByteBuffer mapping) throws Exception {
+                    Object c = cleaner.invoke(mapping);
+                    if (c != null)
+                        clean.invoke(c);
+                }
+            };
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Unmap a buffer. Left to the garbage collector if it fails
+     * 
+     * @param mapping
+     *            Mapped buffer
+     */
+    void unmap(MappedByteBuffer mapping) {
+        try {
+            invoke(mapping);
+        } catch (Exception e) {
+        }
+    }
+
+    /**
+     * Unmap a buffer
+     * 
+     * @param mapping
+     *            Mapped buffer
+     * @throws Exception
+     */
+    abstract void invoke(MappedByteBuffer mapping) throws Exception;
+}
\ No newline at end of file
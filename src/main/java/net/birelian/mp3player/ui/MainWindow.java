@@ -27,8 +27,12 @@ import java.awt.Font;
 import java.awt.SystemColor;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 
@@ -242,6 +246,37 @@ public class MainWindow {
         frmWwteamMpPlayer.setBounds(100, 100, 420, 205);
         frmWwteamMpPlayer.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
+        // No display refresh while the window can't be seen. The playlist
+        // is saved and the player closed on exit
+        frmWwteamMpPlayer.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                playerManager.saveSession();
+                playerManager.close();
+            }
+
+            @Override
+            public void windowIconified(WindowEvent e) {
+                playerManager.getDisplayRefresher().setVisible(false);
+            }
+
+            @Override
+            public void windowDeiconified(WindowEvent e) {
+                playerManager.getDisplayRefresher().setVisible(true);
+            }
+        });
+        frmWwteamMpPlayer.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentHidden(ComponentEvent e) {
+                playerManager.getDisplayRefresher().setVisible(false);
+            }
+
+            @Override
+            public void componentShown(ComponentEvent e) {
+                playerManager.getDisplayRefresher().setVisible(true);
+            }
+        });
+
         // Font
         try {
             displayFont = Font.createFont(Font.TRUETYPE_FONT,
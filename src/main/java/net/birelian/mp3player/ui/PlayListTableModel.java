@@ -0,0 +1,214 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.ui;
+
+import java.util.Arrays;
+
+import javax.swing.table.AbstractTableModel;
+
+import net.birelian.mp3player.core.SongManager;
+
+/**
+ * Playlist table model. Rows are read straight from the song manager and its
+ * track store; the "artist - title" text is built only for painted rows.
+ * 
+ * The up next queue is shown first, followed by the list. Only the queue is
+ * copied, when it changes; list rows are just shifted by its length.
+ * 
+ * While searching, only the songs found are shown, without the queue. They
+ * are set at once, with a single notification, and moved to their new
+ * positions when songs are removed.
+ * 
+ * @author birelian
+ * 
+ */
+public class PlayListTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Song manager */
+    private final SongManager songManager;
+
+    /** Up next queue, as last shown */
+    private int[] queue = new int[0];
+
+    /** Positions in the list of the songs found, or null if not searching */
+    private int[] filter;
+
+    /** Track ids of the songs found, as filter */
+    private int[] filterIds;
+
+    /**
+     * Constructor
+     * 
+     * @param songManager
+     *            Song manager holding the playlist
+     */
+    public PlayListTableModel(SongManager songManager) {
+        this.songManager = songManager;
+    }
+
+    @Override
+    public int getRowCount() {
+        if (filter != null)
+            return filter.length;
+        return queue.length + songManager.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return 1;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return "songInfo";
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        String displayName = songManager.getTrackStore().getDisplayName(
+                getTrackId(rowIndex));
+        return filter == null && rowIndex < queue.length ? "Up next: "
+                + displayName : displayName;
+    }
+
+    /**
+     * Get the number of queued rows, shown before the list
+     * 
+     * @return Number of songs in the up next queue. 0 while searching
+     */
+    public int getQueueLength() {
+        return filter != null ? 0 : queue.length;
+    }
+
+    /**
+     * Get the track id of a row
+     * 
+     * @param rowIndex
+     *            Row
+     * @return Track id
+     */
+    public int getTrackId(int rowIndex) {
+        if (filter == null && rowIndex < queue.length)
+            return queue[rowIndex];
+        return songManager.getTrackId(getPosition(rowIndex));
+    }
+
+    /**
+     * Get the position in the list of a row
+     * 
+     * @param rowIndex
+     *            Row
+     * @return Position in the list, or -1 for queued rows
+     */
+    public int getPosition(int rowIndex) {
+        if (filter != null)
+            return filter[rowIndex];
+        return rowIndex < queue.length ? -1 : rowIndex - queue.length;
+    }
+
+    /**
+     * Get the row of a song of the list
+     * 
+     * @param position
+     *            Position in the list
+     * @return Row, or -1 if not shown
+     */
+    public int getRow(int position) {
+        if (filter == null)
+            return queue.length + position;
+        int row = Arrays.binarySearch(filter, position);
+        return row < 0 ? -1 : row;
+    }
+
+    /**
+     * Check if searching
+     * 
+     * @return true if only the songs found are shown
+     */
+    public boolean isFiltered() {
+        return filter != null;
+    }
+
+    /**
+     * Show only some songs, or every one again
+     * 
+     * @param positions
+     *            Positions in the list of the songs found, in order. Null to
+     *            show the queue and the whole list
+     */
+    public void setFilter(int[] positions) {
+        filter = positions;
+        filterIds = null;
+        if (positions != null) {
+            filterIds = new int[positions.length];
+            for (int i = 0; i < positions.length; i++)
+                filterIds[i] = songManager.getTrackId(positions[i]);
+        }
+        fireTableDataChanged();
+    }
+
+    /**
+     * Move the songs found to their positions after some songs have been
+     * removed from the list. Songs removed are no longer shown.
+     */
+    public void remapFilter() {
+        if (filter == null)
+            return;
+        int[] positions = new int[filterIds.length];
+        int[] trackIds = new int[filterIds.length];
+        int count = 0;
+        for (int id : filterIds) {
+            int position = songManager.indexOf(id);
+            if (position > -1) {
+                positions[count] = position;
+                trackIds[count++] = id;
+            }
+        }
+        filter = Arrays.copyOf(positions, count);
+        filterIds = Arrays.copyOf(trackIds, count);
+        fireTableDataChanged();
+    }
+
+    /**
+     * Read the up next queue again. Only queued rows are notified, if
+     * changed.
+     */
+    public void refreshQueue() {
+        int[] queued = songManager.getQueue();
+        if (Arrays.equals(queued, queue))
+            return;
+        if (filter != null) {
+            // Not shown while searching
+            queue = queued;
+            return;
+        }
+        int removed = queue.length;
+        queue = new int[0];
+        if (removed > 0)
+            fireTableRowsDeleted(0, removed - 1);
+        queue = queued;
+        if (queued.length > 0)
+            fireTableRowsInserted(0, queued.length - 1);
+    }
+}
\ No newline at end of file
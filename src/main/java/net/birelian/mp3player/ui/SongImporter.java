@@ -0,0 +1,277 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingWorker;
+
+import net.birelian.mp3player.core.M3uPlaylist;
+import net.birelian.mp3player.core.PlayerManager;
+import net.birelian.mp3player.core.Song;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Imports a list of files out of the event dispatch thread. Songs are read
+ * by a bounded pool of threads and added to the playlist in batches, in the
+ * same order as the files.
+ * 
+ * Directories are walked recursively, one directory at a time and in name
+ * order, while the files already found are being read. Songs reach the
+ * playlist before the walk is over. M3U playlists are expanded into their
+ * songs.
+ * 
+ * Progress goes from 0 to 100 once every file has been found. When there
+ * are directories, the end of the walk fires a "walking" property change to
+ * false. Cancelling stops reading files; songs already added are kept.
+ * 
+ * @author birelian
+ * 
+ */
+public class SongImporter extends SwingWorker<Integer, Song> {
+    /** Logger */
+    private final Logger logger = LogManager.getLogger(SongImporter.class);
+
+    /** Maximum number of reading threads */
+    private static final int MAX_THREADS = 4;
+
+    /** Files being read at the same time, per thread */
+    private static final int READ_AHEAD = 4;
+
+    /** Player manager */
+    private final PlayerManager playerManager;
+
+    /** Files and directories to be imported */
+    private final List<File> files;
+
+    /** Songs being read, in playlist order */
+    private final Deque<Future<Song>> reading = new ArrayDeque<Future<Song>>();
+
+    /** Song reading threads */
+    private ExecutorService pool;
+
+    /** Maximum number of songs being read at the same time */
+    private int readAhead;
+
+    /** Files found so far */
+    private int found = 0;
+
+    /** Songs imported so far */
+    private int imported = 0;
+
+    /** Number of files to be imported. Unknown (0) while walking */
+    private int total = 0;
+
+    /**
+     * Constructor
+     * 
+     * @param playerManager
+     *            Player manager
+     * @param files
+     *            Files and directories to be imported, in playlist order
+     */
+    public SongImporter(PlayerManager playerManager, List<File> files) {
+        this.playerManager = playerManager;
+        this.files = files;
+    }
+
+    /**
+     * Read every file, publishing songs in order
+     * 
+     * @return Number of imported songs
+     */
+    @Override
+    protected Integer doInBackground() throws Exception {
+        int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime()
+                .availableProcessors()));
+        readAhead = threads * READ_AHEAD;
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Song import");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        boolean walking = false;
+        for (File file : files)
+            walking |= file.isDirectory() || M3uPlaylist.isPlaylist(file);
+        if (!walking)
+            total = files.size();
+        try {
+            for (File file : files) {
+                if (isCancelled())
+                    break;
+                if (file.isDirectory()) {
+                    walk(file.toPath());
+                    // Keep the folder in sync, if enabled
+                    playerManager.watch(file);
+                } else if (M3uPlaylist.isPlaylist(file))
+                    expand(file);
+                else
+                    found(file);
+            }
+            total = found;
+            if (walking)
+                firePropertyChange("walking", true, false);
+            while (!reading.isEmpty() && !isCancelled())
+                publishNext();
+        } finally {
+            pool.shutdownNow();
+        }
+        logger.info("Imported " + imported + " of " + found + " files");
+        return imported;
+    }
+
+    /**
+     * Walk a directory tree, in name order. Symbolic links to directories
+     * are not followed.
+     * 
+     * @param directory
+     *            Directory
+     * @throws InterruptedException
+     */
+    private void walk(Path directory) throws InterruptedException {
+        List<Path> children = new ArrayList<Path>();
+        try {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+            try {
+                for (Path child : stream)
+                    children.add(child);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            logger.error("Error reading directory " + directory);
+            return;
+        }
+        Collections.sort(children);
+        for (Path child : children) {
+            if (isCancelled())
+                return;
+            if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS))
+                walk(child);
+            else if (child.getFileName().toString().toLowerCase()
+                    .endsWith(".mp3"))
+                found(child.toFile());
+        }
+    }
+
+    /**
+     * Find the songs of an M3U playlist. Missing files are skipped.
+     * 
+     * @param playlist
+     *            Playlist file
+     * @throws InterruptedException
+     */
+    private void expand(File playlist) throws InterruptedException {
+        List<File> songs;
+        try {
+            songs = M3uPlaylist.read(playlist);
+        } catch (IOException e) {
+            logger.error("Error reading playlist " + playlist);
+            return;
+        }
+        for (File song : songs) {
+            if (isCancelled())
+                return;
+            if (song.isFile())
+                found(song);
+        }
+    }
+
+    /**
+     * Start reading a file. If too many files are being read, waits for the
+     * first one and publishes it.
+     * 
+     * @param file
+     *            Song file
+     * @throws InterruptedException
+     */
+    private void found(File file) throws InterruptedException {
+        while (reading.size() >= readAhead && !isCancelled())
+            publishNext();
+        reading.add(pool.submit(read(file)));
+        found++;
+    }
+
+    /**
+     * Wait for the first song being read and publish it
+     * 
+     * @throws InterruptedException
+     */
+    private void publishNext() throws InterruptedException {
+        try {
+            publish(reading.poll().get());
+        } catch (ExecutionException e) {
+            logger.error("Error importing song");
+            e.printStackTrace();
+        }
+        imported++;
+        if (total > 0)
+            setProgress(imported * 100 / total);
+    }
+
+    /**
+     * Add a batch of songs to the playlist. Runs in the event dispatch thread.
+     * 
+     * @param songs
+     *            Songs read since the last batch
+     */
+    @Override
+    protected void process(List<Song> songs) {
+        if (!isCancelled())
+            playerManager.addAll(songs);
+    }
+
+    /**
+     * Task reading a song
+     * 
+     * @param file
+     *            Song file
+     * @return Task
+     */
+    private Callable<Song> read(final File file) {
+        return new Callable<Song>() {
+            public Song call() {
+                return playerManager.readSong(file);
+            }
+        };
+    }
+}
\ No newline at end of file
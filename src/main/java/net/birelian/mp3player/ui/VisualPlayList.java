@@ -25,13 +25,17 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.imageio.ImageIO;
@@ -40,15 +44,25 @@ import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JPopupMenu;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingWorker;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
-import javax.swing.table.DefaultTableModel;
 
 import javazoom.jl.decoder.JavaLayerException;
+import net.birelian.mp3player.core.M3uPlaylist;
 import net.birelian.mp3player.core.PlayerManager;
+import net.birelian.mp3player.core.SmartPlaylist;
 import net.birelian.mp3player.core.Song;
+import net.birelian.mp3player.core.SongManager;
 import net.birelian.mp3player.ui.component.CircleButton;
 import net.birelian.mp3player.ui.component.TableNonEditable;
 
@@ -69,7 +83,7 @@ public class VisualPlayList {
     private JTable table;
 
     /** Play list table model */
-    private DefaultTableModel tableModel;
+    private PlayListTableModel tableModel;
 
     /** Player Manager */
     private PlayerManager playerManager;
@@ -77,9 +91,33 @@ public class VisualPlayList {
     /** File chooser */
     private final JFileChooser fc = new JFileChooser();
 
+    /** Playlist export file chooser */
+    private final JFileChooser exportChooser = new JFileChooser();
+
     /** Background */
     private JLabel background;
 
+    /** Import progress. Only shown while importing */
+    private final JProgressBar importProgress = new JProgressBar(0, 100);
+
+    /** Import in progress, if any */
+    private SongImporter importer;
+
+    /** Last smart playlist rules used to select songs */
+    private String lastRules;
+
+    /** Search field */
+    private final JTextField searchField = new JTextField();
+
+    /** Number of searches started. Only the last one is shown */
+    private int searchGeneration = 0;
+
+    /**
+     * Smart playlist shown, or null to show the whole list. Its songs are
+     * found again every time songs are added, removed or changed
+     */
+    private SmartPlaylist smartPlaylist;
+
     /**
      * Get instance
      * 
@@ -97,6 +135,12 @@ public class VisualPlayList {
      */
     public void setPlayerManager(PlayerManager playerManager) {
         this.playerManager = playerManager;
+        tableModel = new PlayListTableModel(playerManager.getSongManager());
+        table.setModel(tableModel);
+        // Playlist restored from the last session
+        if (playerManager.getSongManager().getCurrentSong() != null)
+            highlightPlayingSong(playerManager.getSongManager()
+                    .getCurrentSong());
     }
 
     /**
@@ -131,30 +175,48 @@ public class VisualPlayList {
         background.setBounds(0, 0, 450, 303);
         frmWwteamMpPlayer.getContentPane().add(background);
 
-        // TableModel configuration
-        tableModel = new DefaultTableModel();
-        tableModel.addColumn("songAddress");
-        tableModel.addColumn("songInfo");
-
         // File chooser configuration. Multiple mp3 selection is allowed.
         FileNameExtensionFilter filter = new FileNameExtensionFilter(
-                "MP3 files", "mp3", "text");
+                "MP3 files and playlists", "mp3", "m3u", "m3u8", "text");
         fc.setFileFilter(filter);
         fc.setAcceptAllFileFilterUsed(false);
         fc.setMultiSelectionEnabled(true);
+        // Whole directories are imported recursively
+        fc.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+
+        // Search as you type
+        searchField.setBounds(20, 12, 405, 22);
+        searchField.setToolTipText("Search artists, titles and albums");
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                search();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                search();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        // The index is built the first time, so get it ready
+        searchField.addFocusListener(new FocusAdapter() {
+            public void focusGained(FocusEvent e) {
+                if (searchField.getText().trim().length() == 0)
+                    new SearchWorker("", null, searchGeneration).execute();
+            }
+        });
+        background.add(searchField);
 
         // Table configuration
         table = new TableNonEditable();
         table.setFont(new Font("Dialog", Font.BOLD, 12));
         table.setTableHeader(null);
         JScrollPane tablePane = new JScrollPane(table);
-        tablePane.setBounds(20, 20, 405, 220);
+        tablePane.setBounds(20, 40, 405, 200);
         background.add(tablePane);
         table.setName("Playlist");
-        table.setModel(tableModel);
         table.setBackground(new Color(240, 240, 240));
-        // First column is just for internal purposes. Not shown
-        table.removeColumn(table.getColumnModel().getColumn(0));
         table.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         table.setBounds(12, 12, 422, 174);
         table.addMouseListener(new MouseAdapter() {
@@ -163,6 +225,51 @@ public class VisualPlayList {
             }
         });
 
+        // Playlist export, from the table context menu
+        exportChooser.setFileFilter(new FileNameExtensionFilter(
+                "M3U playlists", "m3u8", "m3u"));
+        exportChooser.setAcceptAllFileFilterUsed(false);
+        JPopupMenu tableMenu = new JPopupMenu();
+        // Up next queue
+        JMenuItem playNextItem = new JMenuItem("Play next");
+        playNextItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                queueSelectedSongs(true);
+            }
+        });
+        tableMenu.add(playNextItem);
+        JMenuItem queueItem = new JMenuItem("Add to up next");
+        queueItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                queueSelectedSongs(false);
+            }
+        });
+        tableMenu.add(queueItem);
+        tableMenu.addSeparator();
+        // Smart playlist rules
+        JMenuItem selectItem = new JMenuItem("Select by rule...");
+        selectItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                selectByRule();
+            }
+        });
+        tableMenu.add(selectItem);
+        JMenuItem smartItem = new JMenuItem("Smart playlist...");
+        smartItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                showSmartPlaylist();
+            }
+        });
+        tableMenu.add(smartItem);
+        JMenuItem exportItem = new JMenuItem("Export playlist...");
+        exportItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                exportPlaylist();
+            }
+        });
+        tableMenu.add(exportItem);
+        table.setComponentPopupMenu(tableMenu);
+
         // Add songs Button
         JButton btnAdd = new CircleButton(null);
         btnAdd.setIcon(new ImageIcon(MainWindow.class
@@ -173,9 +280,7 @@ public class VisualPlayList {
                 int returnValue = fc.showOpenDialog(frmWwteamMpPlayer);
 
                 if (returnValue == JFileChooser.APPROVE_OPTION) {
-                    File[] songs = fc.getSelectedFiles();
-                    for (int i = 0; i < songs.length; i++)
-                        playerManager.add(songs[i]);
+                    importFiles(Arrays.asList(fc.getSelectedFiles()));
                 } else {
                     logger.info("Open command cancelled by user");
                 }
@@ -195,6 +300,77 @@ public class VisualPlayList {
         });
         btnRemove.setBounds(240, 250, 35, 35);
         background.add(btnRemove);
+
+        // Import progress. Click to cancel
+        importProgress.setBounds(20, 242, 405, 6);
+        importProgress.setToolTipText("Importing songs. Click to cancel");
+        importProgress.setVisible(false);
+        importProgress.addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                if (importer != null)
+                    importer.cancel(false);
+            }
+        });
+        background.add(importProgress);
+    }
+
+    /**
+     * Import files in the background. Waits for any import in progress to
+     * be over, so the playlist keeps the selection order.
+     * 
+     * @param files
+     *            Files to be imported
+     */
+    public void importFiles(final List<File> files) {
+        if (importer != null && !importer.isDone()) {
+            // Chain after the current import
+            importer.addPropertyChangeListener(new PropertyChangeListener() {
+                public void propertyChange(PropertyChangeEvent evt) {
+                    if ("state".equals(evt.getPropertyName())
+                            && evt.getNewValue() == SwingWorker.StateValue.DONE)
+                        importFiles(files);
+                }
+            });
+            return;
+        }
+        importer = new SongImporter(playerManager, files);
+        importer.addPropertyChangeListener(new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent evt) {
+                if ("progress".equals(evt.getPropertyName()))
+                    importProgress.setValue((Integer) evt.getNewValue());
+                else if ("walking".equals(evt.getPropertyName()))
+                    importProgress.setIndeterminate(false);
+                else if ("state".equals(evt.getPropertyName())
+                        && evt.getNewValue() == SwingWorker.StateValue.DONE)
+                    importProgress.setVisible(false);
+            }
+        });
+        importProgress.setValue(0);
+        // Number of files unknown until directories and playlists are read
+        for (File file : files)
+            if (file.isDirectory() || M3uPlaylist.isPlaylist(file))
+                importProgress.setIndeterminate(true);
+        importProgress.setVisible(true);
+        importer.execute();
+    }
+
+    /**
+     * Export the playlist to an M3U file chosen by the user
+     */
+    private void exportPlaylist() {
+        int returnValue = exportChooser.showSaveDialog(frmWwteamMpPlayer);
+        if (returnValue != JFileChooser.APPROVE_OPTION)
+            return;
+        File file = exportChooser.getSelectedFile();
+        if (!M3uPlaylist.isPlaylist(file))
+            file = new File(file.getPath() + ".m3u8");
+        try {
+            M3uPlaylist.write(file, playerManager.getSongManager());
+            logger.info("Playlist exported to " + file);
+        } catch (IOException e) {
+            logger.error("Error exporting playlist to " + file);
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -205,15 +381,79 @@ public class VisualPlayList {
     }
 
     /**
-     * Enqueue a song
+     * Enqueue a song, already added to the song manager
      * 
      * @param song
      *            Song to be added
      */
     public void enqueue(Song song) {
-        DefaultTableModel model = (DefaultTableModel) table.getModel();
-        model.addRow(new Object[] { song,
-                song.getArtist() + " - " + song.getTitle() });
+        if (tableModel.isFiltered()) {
+            search();
+            return;
+        }
+        int row = tableModel.getRowCount() - 1;
+        tableModel.fireTableRowsInserted(row, row);
+    }
+
+    /**
+     * Enqueue several songs, already added to the song manager, notifying
+     * the table once
+     * 
+     * @param songs
+     *            Songs to be added
+     */
+    public void enqueueAll(List<Song> songs) {
+        if (songs.isEmpty())
+            return;
+        // New songs may be found too
+        if (tableModel.isFiltered()) {
+            search();
+            return;
+        }
+        int rowCount = tableModel.getRowCount();
+        tableModel.fireTableRowsInserted(rowCount - songs.size(), rowCount - 1);
+    }
+
+    /**
+     * Remove the rows of several songs, notifying the table once
+     * 
+     * @param songs
+     *            Songs removed from the song manager
+     */
+    public void dequeueAll(List<Song> songs) {
+        if (songs.isEmpty())
+            return;
+        tableModel.refreshQueue();
+        if (tableModel.isFiltered()) {
+            // Rows follow their songs at once. A search under way is done
+            // again over the list left
+            tableModel.remapFilter();
+            search();
+        } else
+            tableModel.fireTableDataChanged();
+    }
+
+    /**
+     * Show the up next queue again, if changed
+     */
+    public void refreshQueue() {
+        tableModel.refreshQueue();
+    }
+
+    /**
+     * Refresh the rows of several songs
+     * 
+     * @param songs
+     *            Songs whose metadata has changed
+     */
+    public void refreshAll(List<Song> songs) {
+        if (songs.isEmpty() || tableModel.getRowCount() == 0)
+            return;
+        if (tableModel.isFiltered()) {
+            search();
+            return;
+        }
+        tableModel.fireTableRowsUpdated(0, tableModel.getRowCount() - 1);
     }
 
     /**
@@ -223,14 +463,10 @@ public class VisualPlayList {
      *            Playing song
      */
     public void highlightPlayingSong(Song song) {
-        // Search the song in the list
-        for (int i = 0; i < tableModel.getRowCount(); i++) {
-            if (tableModel.getValueAt(i, 0).equals(song)) {
-                // Found
-                table.setRowSelectionInterval(i, i);
-                return;
-            }
-        }
+        int position = playerManager.getSongManager().indexOf(song);
+        int row = position > -1 ? tableModel.getRow(position) : -1;
+        if (row > -1)
+            table.setRowSelectionInterval(row, row);
     }
 
     /**
@@ -244,8 +480,16 @@ public class VisualPlayList {
         int column = table.columnAtPoint(e.getPoint());
         // If a row is selected by double-click, play the song
         if ((row > -1) && (column > -1) && e.getClickCount() == 2) {
-            playerManager.getSongManager().setCurrentSong(
-                    (Song) tableModel.getValueAt(row, column));
+            SongManager songManager = playerManager.getSongManager();
+            int position = tableModel.getPosition(row);
+            // Queued songs are played from their place in the list
+            if (position < 0)
+                position = songManager.indexOf(songManager.getTrackStore()
+                        .get(tableModel.getTrackId(row)));
+            if (position < 0)
+                return;
+            songManager.setCurrentPosition(position);
+            tableModel.refreshQueue();
             try {
                 playerManager.play(0);
                 // startedPlaying event
@@ -257,43 +501,207 @@ public class VisualPlayList {
     }
 
     /**
-     * Remove selected song
+     * Add the selected songs to the up next queue, in order
+     * 
+     * @param first
+     *            true to play them right after the current song, false to
+     *            play them after the songs already queued
+     */
+    private void queueSelectedSongs(boolean first) {
+        int[] rows = table.getSelectedRows();
+        if (rows.length == 0)
+            return;
+        SongManager songManager = playerManager.getSongManager();
+        List<Song> songs = new ArrayList<Song>(rows.length);
+        for (int row : rows)
+            songs.add(songManager.getTrackStore().get(
+                    tableModel.getTrackId(row)));
+        if (first)
+            // Pushed to the front one by one, so the last one goes first
+            for (int i = songs.size() - 1; i >= 0; i--)
+                songManager.queueNext(songs.get(i));
+        else
+            for (Song song : songs)
+                songManager.queue(song);
+        tableModel.refreshQueue();
+        highlightPlayingSong(songManager.getCurrentSong());
+    }
+
+    /**
+     * Select the songs matching the rules of a smart playlist, asked to the
+     * user
+     */
+    private void selectByRule() {
+        String rules = (String) JOptionPane.showInputDialog(
+                frmWwteamMpPlayer,
+                "Rules, like: artist = \"Name\" and bitrate >= 256"
+                        + " and length < 5 min",
+                "Select by rule", JOptionPane.PLAIN_MESSAGE, null, null,
+                lastRules);
+        if (rules == null)
+            return;
+        SmartPlaylist smartPlaylist;
+        try {
+            smartPlaylist = new SmartPlaylist(rules);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(frmWwteamMpPlayer, e.getMessage(),
+                    "Select by rule", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        lastRules = rules;
+        int[] positions = playerManager.getSongManager().query(smartPlaylist);
+        logger.info("Songs matching " + rules + ": " + positions.length);
+        ListSelectionModel selection = table.getSelectionModel();
+        selection.setValueIsAdjusting(true);
+        selection.clearSelection();
+        // One interval per run of consecutive rows. Songs not shown while
+        // searching are skipped
+        int firstRow = -1;
+        for (int i = 0; i < positions.length; i++) {
+            int row = tableModel.getRow(positions[i]);
+            if (row < 0)
+                continue;
+            int last = row;
+            while (i + 1 < positions.length
+                    && tableModel.getRow(positions[i + 1]) == last + 1) {
+                last++;
+                i++;
+            }
+            selection.addSelectionInterval(row, last);
+            if (firstRow < 0)
+                firstRow = row;
+        }
+        selection.setValueIsAdjusting(false);
+        if (firstRow > -1)
+            table.scrollRectToVisible(table.getCellRect(firstRow, 0, true));
+    }
+
+    /**
+     * Show only the songs matching some rules, kept up to date as songs are
+     * added, removed or changed. No rules show the whole list again.
+     */
+    private void showSmartPlaylist() {
+        String rules = (String) JOptionPane.showInputDialog(
+                frmWwteamMpPlayer,
+                "Rules, like: artist = \"Name\" and bitrate >= 256"
+                        + " and length < 5 min. Empty for the whole list",
+                "Smart playlist", JOptionPane.PLAIN_MESSAGE, null, null,
+                smartPlaylist != null ? smartPlaylist.toString() : lastRules);
+        if (rules == null)
+            return;
+        if (rules.trim().length() == 0)
+            smartPlaylist = null;
+        else
+            try {
+                smartPlaylist = new SmartPlaylist(rules);
+                lastRules = rules;
+            } catch (IllegalArgumentException e) {
+                JOptionPane.showMessageDialog(frmWwteamMpPlayer,
+                        e.getMessage(), "Smart playlist",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+        logger.info("Smart playlist: " + smartPlaylist);
+        search();
+    }
+
+    /**
+     * Search the text of the search field in the background, within the
+     * smart playlist if any. The table shows the songs found when done,
+     * unless another search has started.
+     */
+    private void search() {
+        String text = searchField.getText();
+        int generation = ++searchGeneration;
+        if (text.trim().length() == 0 && smartPlaylist == null) {
+            if (tableModel.isFiltered()) {
+                tableModel.setFilter(null);
+                highlightPlayingSong(playerManager.getSongManager()
+                        .getCurrentSong());
+            }
+            return;
+        }
+        new SearchWorker(text, smartPlaylist, generation).execute();
+    }
+
+    /**
+     * Remove selected songs at once
      */
     private void removeSelectedSongs() {
-        Song song;
-        table.getSelectedRows();
-        // Important: Delete backwards so we don't have problems with changed
-        // indexes caused
-        // for previous row deletions. The safer way seems to create a
-        // descending sorted list
-        // of indexes of the selected rows. This way, when we delete a row, it
-        // won't affect
-        // next deletions.
-
-        if (table.getSelectedRowCount() > 0) {
-
-            // Create the list of selected rows
-            List<Integer> selectedRows = new ArrayList<Integer>();
-            for (int i : table.getSelectedRows())
-                selectedRows.add((Integer) i);
-            // Sort the list
-            Collections.sort(selectedRows, Collections.reverseOrder());
-
-            // Proceed with deletions
-            for (Integer rowIndex : selectedRows) {
-                song = (Song) tableModel.getValueAt(rowIndex, 0);
-                playerManager.remove(song);
-                tableModel.removeRow(rowIndex);
-                // Check if there are more songs
-                int rowCount = tableModel.getRowCount();
-                if (rowCount == 0)
-                    return;
-                // Select next row. Be careful with the last song
-                if (rowIndex < rowCount)
-                    table.setRowSelectionInterval(rowIndex, rowIndex);
-                else
-                    table.setRowSelectionInterval(rowIndex - 1, rowIndex - 1);
+        int[] rows = table.getSelectedRows();
+        if (rows.length == 0)
+            return;
+        SongManager songManager = playerManager.getSongManager();
+        List<Song> songs = new ArrayList<Song>(rows.length);
+        for (int row : rows)
+            if (tableModel.getPosition(row) < 0)
+                // Queued rows only leave the queue
+                songManager.unqueue(songManager.getTrackStore().get(
+                        tableModel.getTrackId(row)));
+            else
+                songs.add(songManager.getSong(tableModel.getPosition(row)));
+        tableModel.refreshQueue();
+        playerManager.removeAll(songs);
+        // Check if there are more songs
+        int rowCount = tableModel.getRowCount();
+        if (rowCount == 0)
+            return;
+        // Select the row after the first removed one. Be careful with the
+        // last song
+        int row = Math.min(rows[0], rowCount - 1);
+        table.setRowSelectionInterval(row, row);
+    }
+
+    /**
+     * Search run off the event dispatch thread
+     */
+    private class SearchWorker extends SwingWorker<int[], Void> {
+        /** Text searched */
+        private final String text;
+
+        /** Smart playlist searched in. Null for the whole list */
+        private final SmartPlaylist rules;
+
+        /** Search number */
+        private final int generation;
+
+        /**
+         * Constructor
+         * 
+         * @param text
+         *            Text searched. Empty to just build the index, if there
+         *            is no smart playlist
+         * @param rules
+         *            Smart playlist searched in. Null for the whole list
+         * @param generation
+         *            Search number
+         */
+        private SearchWorker(String text, SmartPlaylist rules, int generation) {
+            this.text = text;
+            this.rules = rules;
+            this.generation = generation;
+        }
+
+        @Override
+        protected int[] doInBackground() {
+            return playerManager.getSongManager().find(rules,
+                    rules == null || text.trim().length() > 0 ? text : null);
+        }
+
+        @Override
+        protected void done() {
+            // Out of date, or just building the index
+            if (generation != searchGeneration
+                    || text.trim().length() == 0 && rules == null)
+                return;
+            try {
+                tableModel.setFilter(get());
+                highlightPlayingSong(playerManager.getSongManager()
+                        .getCurrentSong());
+            } catch (Exception e) {
+                logger.error("Error searching " + text);
+                e.printStackTrace();
             }
         }
     }
-}
+}
\ No newline at end of file
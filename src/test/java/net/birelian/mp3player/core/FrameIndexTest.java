@@ -0,0 +1,149 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Frame header math and frame scanning of {@link FrameIndex}
+ * 
+ * @author birelian
+ * 
+ */
+public class FrameIndexTest {
+
+    /** MPEG-1 Layer III, 128 kbps, 44100 Hz, no padding */
+    private static final int MPEG1_LAYER3 = 0xFFFB9000;
+
+    /**
+     * MPEG-1 Layer III frames are 144 * bitrate / sample rate bytes, plus
+     * padding
+     */
+    @Test
+    public void mpeg1Layer3() {
+        assertEquals(417, FrameIndex.frameLength(MPEG1_LAYER3));
+        // Padding bit
+        assertEquals(418, FrameIndex.frameLength(MPEG1_LAYER3 | 0x200));
+        // 320 kbps, 48000 Hz
+        assertEquals(960, FrameIndex.frameLength(0xFFFBE400));
+    }
+
+    /**
+     * MPEG-2 Layer III frames hold half the samples
+     */
+    @Test
+    public void mpeg2Layer3() {
+        // 64 kbps, 22050 Hz
+        assertEquals(208, FrameIndex.frameLength(0xFFF38000));
+    }
+
+    /**
+     * Layer I frames are made of 4 byte slots
+     */
+    @Test
+    public void mpeg1Layer1() {
+        // 384 kbps, 44100 Hz
+        assertEquals(416, FrameIndex.frameLength(0xFFFEC000));
+    }
+
+    /**
+     * Headers that are not valid, or not supported, have no length
+     */
+    @Test
+    public void invalidHeaders() {
+        // No sync
+        assertEquals(-1, FrameIndex.frameLength(0));
+        assertEquals(-1, FrameIndex.frameLength(0x7FFB9000));
+        // Free format bit rate
+        assertEquals(-1, FrameIndex.frameLength(0xFFFB0000));
+        // Bad bit rate
+        assertEquals(-1, FrameIndex.frameLength(0xFFFBF000));
+        // Reserved sample rate
+        assertEquals(-1, FrameIndex.frameLength(0xFFFB9C00));
+        // Reserved version
+        assertEquals(-1, FrameIndex.frameLength(0xFFEB9000));
+        // Reserved layer
+        assertEquals(-1, FrameIndex.frameLength(0xFFF99000));
+    }
+
+    /**
+     * Frames are found after the ID3v2 tag, and again after garbage
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void scan() throws IOException {
+        File file = File.createTempFile("frameindex", ".mp3");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                // ID3v2 tag of 90 bytes, plus its 10 bytes header
+                byte[] tag = new byte[100];
+                tag[0] = 'I';
+                tag[1] = 'D';
+                tag[2] = '3';
+                tag[9] = 90;
+                out.write(tag);
+                for (int i = 0; i < 3; i++)
+                    out.write(frame(MPEG1_LAYER3, 417));
+                out.write(new byte[5]);
+                out.write(frame(MPEG1_LAYER3 | 0x200, 418));
+                out.write(frame(MPEG1_LAYER3, 417));
+            } finally {
+                out.close();
+            }
+            FrameIndex index = new FrameIndex(file);
+            assertEquals(5, index.size());
+            assertEquals(100, index.getOffset(0));
+            assertEquals(517, index.getOffset(1));
+            assertEquals(934, index.getOffset(2));
+            assertEquals(1356, index.getOffset(3));
+            assertEquals(1774, index.getOffset(4));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Build a silent frame
+     * 
+     * @param header
+     *            Frame header
+     * @param length
+     *            Frame length
+     * @return Frame bytes
+     */
+    private static byte[] frame(int header, int length) {
+        byte[] frame = new byte[length];
+        frame[0] = (byte) (header >>> 24);
+        frame[1] = (byte) (header >>> 16);
+        frame[2] = (byte) (header >>> 8);
+        frame[3] = (byte) header;
+        return frame;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Wraparound, clear and close of {@link PcmRingBuffer}
+ * 
+ * @author birelian
+ * 
+ */
+public class PcmRingBufferTest {
+
+    /**
+     * Frames come out in order after the indexes wrap around the slots
+     */
+    @Test
+    public void wraparound() {
+        PcmRingBuffer buffer = new PcmRingBuffer(3, 4);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(buffer.write(frame(i), 2));
+            assertTrue(buffer.write(frame(i + 100), 3));
+            assertEquals(2, buffer.size());
+            assertSlot(buffer, i, 2);
+            assertSlot(buffer, i + 100, 3);
+            assertEquals(0, buffer.size());
+        }
+        assertEquals(0, buffer.getOverruns());
+    }
+
+    /**
+     * Cleared frames are skipped, and frames written afterwards are played
+     */
+    @Test
+    public void clear() {
+        PcmRingBuffer buffer = new PcmRingBuffer(4, 4);
+        buffer.write(frame(1), 4);
+        buffer.write(frame(2), 4);
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        buffer.write(frame(3), 4);
+        assertEquals(1, buffer.size());
+        assertSlot(buffer, 3, 4);
+    }
+
+    /**
+     * A full buffer makes room as soon as it is cleared
+     * 
+     * @throws InterruptedException
+     */
+    @Test(timeout = 5000)
+    public void clearWakesUpProducer() throws InterruptedException {
+        final PcmRingBuffer buffer = new PcmRingBuffer(2, 4);
+        buffer.write(frame(1), 4);
+        buffer.write(frame(2), 4);
+        final boolean[] written = new boolean[1];
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                // Full. Waits for the consumer
+                written[0] = buffer.write(frame(3), 4);
+            }
+        });
+        producer.start();
+        while (producer.getState() != Thread.State.WAITING)
+            Thread.yield();
+        // The consumer skips the cleared frames and frees their slots
+        buffer.clear();
+        assertSlot(buffer, 3, 4);
+        producer.join();
+        assertTrue(written[0]);
+        assertEquals(1, buffer.getOverruns());
+    }
+
+    /**
+     * Closing wakes up a waiting consumer
+     * 
+     * @throws InterruptedException
+     */
+    @Test(timeout = 5000)
+    public void closeWakesUpConsumer() throws InterruptedException {
+        final PcmRingBuffer buffer = new PcmRingBuffer(2, 4);
+        final int[] slot = { 0 };
+        Thread consumer = new Thread(new Runnable() {
+            public void run() {
+                slot[0] = buffer.take(true);
+            }
+        });
+        consumer.start();
+        buffer.close();
+        consumer.join();
+        assertEquals(-1, slot[0]);
+        assertFalse(buffer.write(frame(1), 4));
+    }
+
+    /**
+     * Every frame written by one thread is read by another, in order
+     * 
+     * @throws InterruptedException
+     */
+    @Test(timeout = 10000)
+    public void producerAndConsumer() throws InterruptedException {
+        final PcmRingBuffer buffer = new PcmRingBuffer(3, 1);
+        final int frames = 100000;
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < frames; i++)
+                    buffer.write(new short[] { (short) i }, 1);
+            }
+        });
+        producer.start();
+        for (int i = 0; i < frames; i++) {
+            int slot = buffer.take(false);
+            assertEquals((short) i, buffer.getSamples(slot)[0]);
+            buffer.release();
+        }
+        producer.join();
+        assertEquals(0, buffer.size());
+    }
+
+    /**
+     * Take the next frame and check it
+     * 
+     * @param buffer
+     *            Buffer
+     * @param value
+     *            Value of every sample
+     * @param length
+     *            Number of samples
+     */
+    private static void assertSlot(PcmRingBuffer buffer, int value,
+            int length) {
+        int slot = buffer.take(false);
+        assertEquals(length, buffer.getLength(slot));
+        for (int i = 0; i < length; i++)
+            assertEquals(value, buffer.getSamples(slot)[i]);
+        buffer.release();
+    }
+
+    /**
+     * Build a frame
+     * 
+     * @param value
+     *            Value of every sample
+     * @return Samples
+     */
+    private static short[] frame(int value) {
+        short[] samples = new short[4];
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = (short) value;
+        return samples;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Saving and restoring a {@link PlaylistSnapshot}
+ * 
+ * @author birelian
+ * 
+ */
+public class PlaylistSnapshotTest {
+
+    /**
+     * A restored snapshot is saved over the file it was mapped from, twice,
+     * and the restored songs can still be read
+     */
+    @Test
+    public void saveRestored() throws IOException {
+        File file = File.createTempFile("playlist", ".bin");
+        try {
+            SongManager songManager = new SongManager(new TrackStore(false));
+            songManager.addAll(Arrays.asList(song("A"), song("B"), song("C")));
+            new PlaylistSnapshot(file).save(songManager, 0);
+
+            PlaylistSnapshot snapshot = new PlaylistSnapshot(file);
+            TrackStore restored = snapshot.restore(false);
+            songManager = new SongManager(restored);
+            songManager.setCurrentPosition(1);
+            songManager.remove(songManager.getSong(0));
+            songManager.add(song("D"));
+            snapshot.save(songManager, 500);
+            songManager.add(song("E"));
+            snapshot.save(songManager, 600);
+            // Still readable once copied out of the mapping
+            assertEquals("B", restored.getTitle(1));
+            assertEquals("E", restored.getTitle(4));
+            assertFalse(new File(file.getPath() + ".tmp").exists());
+
+            snapshot = new PlaylistSnapshot(file);
+            TrackStore store = snapshot.restore(true);
+            assertEquals(4, store.size());
+            assertEquals("B", store.getTitle(0));
+            assertEquals("C", store.getTitle(1));
+            assertEquals("D", store.getTitle(2));
+            assertEquals("E", store.getTitle(3));
+            assertEquals(0, snapshot.getPosition());
+            assertEquals(600, snapshot.getFrame());
+            // And saved over once more
+            snapshot.save(new SongManager(store), 0);
+            assertEquals(4, new PlaylistSnapshot(file).restore(false).size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * A missing or corrupt file restores nothing
+     */
+    @Test
+    public void invalid() throws IOException {
+        File file = File.createTempFile("playlist", ".bin");
+        try {
+            PlaylistSnapshot snapshot = new PlaylistSnapshot(file);
+            assertNull(snapshot.restore(false));
+            assertEquals(-1, snapshot.getPosition());
+            // Saved over the released file
+            snapshot.save(new SongManager(new TrackStore(false)), 0);
+            assertEquals(0, new PlaylistSnapshot(file).restore(false).size());
+        } finally {
+            file.delete();
+        }
+        assertNull(new PlaylistSnapshot(file).restore(false));
+    }
+
+    /**
+     * Build a song
+     * 
+     * @param title
+     *            Title
+     * @return Song
+     */
+    private static Song song(String title) {
+        return TrackStoreTest.song("/music/" + title + ".mp3", "Artist",
+                "Album", title);
+    }
+}
\ No newline at end of file
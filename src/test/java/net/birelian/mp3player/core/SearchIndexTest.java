@@ -0,0 +1,184 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+/**
+ * Prefix search of {@link SearchIndex}
+ * 
+ * @author birelian
+ * 
+ */
+public class SearchIndexTest {
+
+    /**
+     * Short prefixes, long prefixes and whole words
+     */
+    @Test
+    public void prefixes() {
+        TrackStore store = new TrackStore(false);
+        int beatles = store.add(TrackStoreTest.song("/a.mp3", "The Beatles",
+                "Abbey Road", "Come Together"));
+        int queen = store.add(TrackStoreTest.song("/b.mp3", "Queen",
+                "A Night at the Opera", "Bohemian Rhapsody"));
+        int beach = store.add(TrackStoreTest.song("/c.mp3", "Beach Boys",
+                "Pet Sounds", "God Only Knows"));
+        SearchIndex index = index(store);
+        assertSearch(index, "b", beatles, queen, beach);
+        assertSearch(index, "be", beatles, beach);
+        assertSearch(index, "bea", beatles, beach);
+        assertSearch(index, "beat", beatles);
+        assertSearch(index, "beatles", beatles);
+        assertSearch(index, "beatless");
+        assertSearch(index, "eatles");
+        assertSearch(index, "x");
+        assertSearch(index, "");
+        assertSearch(index, " - ");
+    }
+
+    /**
+     * Every term must match, whatever the case and accents
+     */
+    @Test
+    public void terms() {
+        TrackStore store = new TrackStore(false);
+        int beatles = store.add(TrackStoreTest.song("/a.mp3", "The Beatles",
+                "Abbey Road", "Come Together"));
+        int bjork = store.add(TrackStoreTest.song("/b.mp3", "Björk",
+                "Homogenic", "Jóga"));
+        store.add(TrackStoreTest.song("/c.mp3", "The Doors", "L.A. Woman",
+                "Riders on the Storm"));
+        SearchIndex index = index(store);
+        assertSearch(index, "beat ab", beatles);
+        assertSearch(index, "AB  beat", beatles);
+        assertSearch(index, "the ro", beatles);
+        assertSearch(index, "beat doors");
+        assertSearch(index, "bjork", bjork);
+        assertSearch(index, "BJÖRK joga", bjork);
+        assertSearch(index, "jo", bjork);
+        assertSearch(index, "home");
+    }
+
+    /**
+     * Changed tracks match their new words only, and removed tracks are left
+     * to the caller
+     */
+    @Test
+    public void changes() {
+        TrackStore store = new TrackStore(false);
+        int id = store.add(TrackStoreTest.song("/a.mp3", "Queen",
+                "A Night at the Opera", "Bohemian Rhapsody"));
+        SearchIndex index = index(store);
+        store.set(id, TrackStoreTest.song("/a.mp3", "Queen", "Innuendo",
+                "The Show Must Go On"));
+        index.update(id);
+        assertSearch(index, "queen", id);
+        assertSearch(index, "innuendo", id);
+        assertSearch(index, "in", id);
+        assertSearch(index, "opera");
+        assertSearch(index, "bo");
+        assertSearch(index, "rhapsody show");
+        int added = store.add(TrackStoreTest.song("/b.mp3", "Queen",
+                "A Night at the Opera", "Love of My Life"));
+        index.add(added);
+        assertSearch(index, "opera", added);
+        assertSearch(index, "queen", id, added);
+        index.remove(added);
+        assertSearch(index, "opera", added);
+    }
+
+    /**
+     * The index is stale once more than half of it is
+     */
+    @Test
+    public void stale() {
+        TrackStore store = new TrackStore(false);
+        for (int i = 0; i < 2000; i++)
+            store.add(TrackStoreTest.song("/" + i + ".mp3", "Artist " + i,
+                    "Album", "Title"));
+        SearchIndex index = index(store);
+        for (int i = 0; i < 1024; i++)
+            index.remove(i);
+        // Too few stale tracks to bother
+        assertFalse(index.isStale());
+        index.remove(1024);
+        // 1025 stale, 975 not
+        assertTrue(index.isStale());
+
+        index = index(store);
+        for (int i = 0; i < 1500; i++)
+            index.add(store.add(TrackStoreTest.song("/new" + i + ".mp3",
+                    "Artist", "Album", "Title")));
+        for (int i = 0; i < 1700; i++)
+            index.remove(i);
+        // 1700 stale, 1800 not
+        assertFalse(index.isStale());
+        for (int i = 1700; i < 1800; i++)
+            index.update(i);
+        assertFalse(index.isStale());
+        index.update(1800);
+        assertTrue(index.isStale());
+    }
+
+    /**
+     * Index every track of a store
+     * 
+     * @param store
+     *            Track store
+     * @return Search index
+     */
+    private static SearchIndex index(TrackStore store) {
+        int[] ids = new int[store.size()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = i;
+        return new SearchIndex(store, ids, ids.length);
+    }
+
+    /**
+     * Check the tracks found by a search
+     * 
+     * @param index
+     *            Search index
+     * @param text
+     *            Search
+     * @param ids
+     *            Expected track ids, in increasing order
+     */
+    private static void assertSearch(SearchIndex index, String text,
+            int... ids) {
+        BitSet found = index.search(text);
+        int[] actual = new int[found.cardinality()];
+        int i = 0;
+        for (int id = found.nextSetBit(0); id > -1; id = found
+                .nextSetBit(id + 1))
+            actual[i++] = id;
+        assertEquals(text, Arrays.toString(ids), Arrays.toString(actual));
+    }
+}
\ No newline at end of file
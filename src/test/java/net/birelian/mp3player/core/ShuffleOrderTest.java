@@ -0,0 +1,172 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Draws and moves of {@link ShuffleOrder}
+ * 
+ * @author birelian
+ * 
+ */
+public class ShuffleOrderTest {
+
+    /**
+     * Every song is drawn once, songs added later included, except the one
+     * the shuffle started with
+     */
+    @Test
+    public void drawsEverySongOnce() {
+        ShuffleOrder order = new ShuffleOrder(ids(100), 100, new Random(1));
+        order.start(42);
+        BitSet drawn = new BitSet();
+        drawn.set(42);
+        for (int i = 0; i < 50; i++)
+            draw(order, drawn);
+        order.add(new int[] { 100, 101, 102 });
+        for (int i = 0; i < 52; i++)
+            draw(order, drawn);
+        assertEquals(-1, order.next());
+        assertEquals(103, drawn.cardinality());
+    }
+
+    /**
+     * Every order of three songs is about as likely
+     */
+    @Test
+    public void uniform() {
+        Random random = new Random(7);
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < 60000; i++) {
+            ShuffleOrder order = new ShuffleOrder(ids(3), 3, random);
+            String key = "" + order.next() + order.next() + order.next();
+            Integer count = counts.get(key);
+            counts.put(key, count == null ? 1 : count + 1);
+        }
+        assertEquals(6, counts.size());
+        for (int count : counts.values())
+            assertTrue("Count " + count, Math.abs(count - 10000) < 500);
+    }
+
+    /**
+     * Peeking draws the next song once, and going back and forth replays
+     * the history
+     */
+    @Test
+    public void peekAndHistory() {
+        ShuffleOrder order = new ShuffleOrder(ids(10), 10, new Random(3));
+        int first = order.next();
+        int second = order.peek();
+        assertEquals(second, order.peek());
+        assertEquals(second, order.next());
+        int third = order.next();
+        assertEquals(second, order.previous());
+        assertEquals(first, order.previous());
+        assertEquals(-1, order.previous());
+        assertEquals(second, order.next());
+        assertEquals(third, order.next());
+    }
+
+    /**
+     * A song chosen by the user is played right after the current one, and
+     * the order goes on from there
+     */
+    @Test
+    public void moveTo() {
+        ShuffleOrder order = new ShuffleOrder(ids(10), 10, new Random(5));
+        int first = order.next();
+        int second = order.peek();
+        int chosen = (first + 1) % 10 == second ? (first + 2) % 10
+                : (first + 1) % 10;
+        order.moveTo(chosen);
+        // The peeked song is still next
+        assertEquals(second, order.next());
+        assertEquals(chosen, order.previous());
+        assertEquals(first, order.previous());
+        // Moving to the next song just moves
+        order.moveTo(chosen);
+        assertEquals(second, order.next());
+        // Moving to the current song does nothing
+        order.moveTo(second);
+        assertEquals(chosen, order.previous());
+    }
+
+    /**
+     * A removed song found by peek is forgotten
+     */
+    @Test
+    public void discardNext() {
+        ShuffleOrder order = new ShuffleOrder(ids(10), 10, new Random(9));
+        int first = order.next();
+        int removed = order.peek();
+        order.discardNext();
+        int next = order.next();
+        assertTrue(next != removed);
+        BitSet drawn = new BitSet();
+        drawn.set(first);
+        drawn.set(removed);
+        drawn.set(next);
+        int id;
+        while ((id = order.next()) > -1) {
+            assertTrue(id != removed);
+            drawn.set(id);
+        }
+        assertEquals(10, drawn.cardinality());
+    }
+
+    /**
+     * Draw the next song and check it was not drawn before
+     * 
+     * @param order
+     *            Shuffle order
+     * @param drawn
+     *            Songs drawn so far
+     */
+    private static void draw(ShuffleOrder order, BitSet drawn) {
+        int id = order.next();
+        assertTrue("Drawn " + id, id > -1 && !drawn.get(id));
+        drawn.set(id);
+    }
+
+    /**
+     * Build track ids
+     * 
+     * @param size
+     *            Number of tracks
+     * @return Track ids 0 to size - 1
+     */
+    private static int[] ids(int size) {
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++)
+            ids[i] = i;
+        return ids;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,167 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import net.birelian.mp3player.core.SmartPlaylist.Condition;
+import net.birelian.mp3player.core.SmartPlaylist.Field;
+
+import org.junit.Test;
+
+/**
+ * Parsing of {@link SmartPlaylist} rules
+ * 
+ * @author birelian
+ * 
+ */
+public class SmartPlaylistTest {
+
+    /**
+     * Every field and operator
+     */
+    @Test
+    public void rules() {
+        List<Condition> conditions = new SmartPlaylist(
+                "artist = Queen AND bitrate >= 256 and samplerate > 44099"
+                        + " and length < 300 and length <= 400")
+                .getConditions();
+        assertEquals(5, conditions.size());
+        assertEquals(Field.ARTIST, conditions.get(0).getField());
+        assertEquals("Queen", conditions.get(0).getValue());
+        check(conditions.get(1), Field.BIT_RATE, 256, Integer.MAX_VALUE);
+        check(conditions.get(2), Field.SAMPLE_RATE, 44100, Integer.MAX_VALUE);
+        check(conditions.get(3), Field.LENGTH, Integer.MIN_VALUE, 299);
+        check(conditions.get(4), Field.LENGTH, Integer.MIN_VALUE, 400);
+        check(new SmartPlaylist("BitRate = 128").getConditions().get(0),
+                Field.BIT_RATE, 128, 128);
+    }
+
+    /**
+     * Quoted values are taken as they are, "and" included
+     */
+    @Test
+    public void quoted() {
+        List<Condition> conditions = new SmartPlaylist(
+                "album = \"Rock and Roll\" and artist=\"  The Band \"")
+                .getConditions();
+        assertEquals(2, conditions.size());
+        assertEquals(Field.ALBUM, conditions.get(0).getField());
+        assertEquals("Rock and Roll", conditions.get(0).getValue());
+        assertEquals("  The Band ", conditions.get(1).getValue());
+    }
+
+    /**
+     * Units of each field
+     */
+    @Test
+    public void units() {
+        check(parse("length > 5 min"), Field.LENGTH, 301, Integer.MAX_VALUE);
+        check(parse("length = 5m"), Field.LENGTH, 300, 300);
+        check(parse("length = 90 sec"), Field.LENGTH, 90, 90);
+        check(parse("length = 90s"), Field.LENGTH, 90, 90);
+        check(parse("length <= 3:07"), Field.LENGTH, Integer.MIN_VALUE, 187);
+        check(parse("bitrate = 320 KBPS"), Field.BIT_RATE, 320, 320);
+        check(parse("samplerate = 48000 Hz"), Field.SAMPLE_RATE, 48000,
+                48000);
+        assertNull(parse("bitrate = 320").getValue());
+    }
+
+    /**
+     * Units that don't fit the field are errors
+     */
+    @Test
+    public void wrongUnits() {
+        wrong("bitrate > 5 min");
+        wrong("bitrate = 3:00");
+        wrong("samplerate = 44100 kbps");
+        wrong("length = 300 hz");
+        wrong("length = 300 kbps");
+    }
+
+    /**
+     * Rules that can't be understood are errors
+     */
+    @Test
+    public void wrongRules() {
+        wrong(null);
+        wrong("   ");
+        wrong("genre = Rock");
+        wrong("artist > Queen");
+        wrong("album <= x");
+        wrong("length = five");
+        wrong("length = 99999999999");
+        wrong("artist Queen");
+        wrong("= Queen");
+    }
+
+    /**
+     * Parse a single rule
+     * 
+     * @param rule
+     *            Rule
+     * @return Condition
+     */
+    private static Condition parse(String rule) {
+        List<Condition> conditions = new SmartPlaylist(rule).getConditions();
+        assertEquals(1, conditions.size());
+        return conditions.get(0);
+    }
+
+    /**
+     * Check a numeric condition
+     * 
+     * @param condition
+     *            Condition
+     * @param field
+     *            Expected field
+     * @param min
+     *            Expected lowest number
+     * @param max
+     *            Expected highest number
+     */
+    private static void check(Condition condition, Field field, int min,
+            int max) {
+        assertEquals(field, condition.getField());
+        assertEquals(min, condition.getMin());
+        assertEquals(max, condition.getMax());
+    }
+
+    /**
+     * Check that rules are rejected
+     * 
+     * @param text
+     *            Rules
+     */
+    private static void wrong(String text) {
+        try {
+            new SmartPlaylist(text);
+            fail("Accepted: " + text);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,257 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Cursor, bulk edits and concurrent use of {@link SongManager}
+ * 
+ * @author birelian
+ * 
+ */
+public class SongManagerTest {
+
+    /**
+     * The first song added becomes the current one, and the cursor moves
+     * both ways
+     */
+    @Test
+    public void cursor() {
+        SongManager songManager = songManager(3);
+        assertEquals(0, songManager.getCurrentPosition());
+        assertEquals(1, songManager.next().getId());
+        assertEquals(2, songManager.next().getId());
+        assertEquals(1, songManager.previous().getId());
+        assertEquals(1, songManager.getCurrentSong().getId());
+        songManager.setCurrentPosition(2);
+        assertNull(songManager.next());
+        assertNull(songManager.getCurrentSong());
+        assertEquals(-1, songManager.getCurrentPosition());
+    }
+
+    /**
+     * Removing the current song makes the first song left after it the
+     * current one
+     */
+    @Test
+    public void removeCurrent() {
+        SongManager songManager = songManager(6);
+        songManager.setCurrentPosition(2);
+        List<Song> removed = Arrays.asList(songManager.getSong(1),
+                songManager.getSong(2), songManager.getSong(3));
+        assertTrue(songManager.removeAll(removed));
+        assertArrayEquals(new int[] { 0, 4, 5 }, songManager.getTrackIds());
+        assertEquals(4, songManager.getCurrentSong().getId());
+        assertEquals(1, songManager.getCurrentPosition());
+    }
+
+    /**
+     * Removing other songs keeps the current one, and songs not in the list
+     * are ignored
+     */
+    @Test
+    public void removeOthers() {
+        SongManager songManager = songManager(5);
+        songManager.setCurrentPosition(3);
+        assertFalse(songManager.removeAll(Arrays.asList(
+                songManager.getSong(0), songManager.getSong(4))));
+        assertArrayEquals(new int[] { 1, 2, 3 }, songManager.getTrackIds());
+        assertEquals(3, songManager.getCurrentSong().getId());
+        assertEquals(2, songManager.getCurrentPosition());
+        assertFalse(songManager.removeAll(Collections.singletonList(song(9))));
+        assertEquals(3, songManager.size());
+    }
+
+    /**
+     * Removing the last songs, current one included, leaves no current song
+     */
+    @Test
+    public void removeTail() {
+        SongManager songManager = songManager(3);
+        songManager.setCurrentPosition(2);
+        assertTrue(songManager.removeAll(Arrays.asList(
+                songManager.getSong(1), songManager.getSong(2))));
+        assertNull(songManager.getCurrentSong());
+        assertEquals(1, songManager.size());
+    }
+
+    /**
+     * Queued songs are played first, and leave the queue when removed
+     */
+    @Test
+    public void queue() {
+        SongManager songManager = songManager(5);
+        songManager.queue(songManager.getSong(3));
+        songManager.queueNext(songManager.getSong(4));
+        assertArrayEquals(new int[] { 4, 3 }, songManager.getQueue());
+        assertEquals(4, songManager.peekNext().getId());
+        songManager.removeAll(Collections.singletonList(songManager
+                .getSong(3)));
+        assertEquals(4, songManager.next().getId());
+        assertArrayEquals(new int[0], songManager.getQueue());
+        // The list goes on after the queued song
+        assertNull(songManager.next());
+    }
+
+    /**
+     * A song queued for gapless playback and then removed is no longer the
+     * next one, and the song after it is played instead
+     */
+    @Test
+    public void queuedRemoved() {
+        SongManager songManager = songManager(4);
+        songManager.setCurrentPosition(1);
+        Song queued = songManager.peekNext();
+        assertEquals(2, queued.getId());
+        assertTrue(songManager.isNext(queued));
+        songManager.remove(queued);
+        assertFalse(songManager.isNext(queued));
+        assertFalse(songManager.isNext(null));
+        // Still playing the second song
+        assertEquals(1, songManager.getCurrentPosition());
+        assertEquals(3, songManager.next().getId());
+        assertEquals(2, songManager.getCurrentPosition());
+    }
+
+    /**
+     * A song queued for gapless playback is no longer the next one once
+     * another song is queued by the user
+     */
+    @Test
+    public void queuedReplaced() {
+        SongManager songManager = songManager(4);
+        Song queued = songManager.peekNext();
+        assertTrue(songManager.isNext(queued));
+        songManager.queueNext(songManager.getSong(3));
+        assertFalse(songManager.isNext(queued));
+        assertTrue(songManager.isNext(songManager.getSong(3)));
+    }
+
+    /**
+     * The cursor moves one song at a time while another thread adds songs,
+     * and no edit is lost
+     * 
+     * @throws InterruptedException
+     */
+    @Test(timeout = 10000)
+    public void moveWhileAdding() throws InterruptedException {
+        final SongManager songManager = songManager(1000);
+        final int[] ids = new int[999];
+        Thread playback = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < ids.length; i++)
+                    ids[i] = songManager.next().getId();
+            }
+        });
+        playback.start();
+        for (int batch = 0; batch < 100; batch++) {
+            List<Song> songs = new ArrayList<Song>();
+            for (int i = 0; i < 10; i++)
+                songs.add(song(0));
+            songManager.addAll(songs);
+        }
+        playback.join();
+        for (int i = 0; i < ids.length; i++)
+            assertEquals(i + 1, ids[i]);
+        assertEquals(2000, songManager.size());
+        assertEquals(999, songManager.getCurrentPosition());
+        int[] trackIds = songManager.getTrackIds();
+        for (int i = 0; i < trackIds.length; i++)
+            assertEquals(i, trackIds[i]);
+    }
+
+    /**
+     * The cursor never stops on a removed song while another thread removes
+     * songs
+     * 
+     * @throws InterruptedException
+     */
+    @Test(timeout = 10000)
+    public void moveWhileRemoving() throws InterruptedException {
+        final SongManager songManager = songManager(3000);
+        final List<Integer> played = Collections
+                .synchronizedList(new ArrayList<Integer>());
+        Thread playback = new Thread(new Runnable() {
+            public void run() {
+                Song song;
+                while ((song = songManager.next()) != null)
+                    played.add(song.getId());
+            }
+        });
+        playback.start();
+        // Remove every odd track, a few at a time
+        for (int id = 1; id < 3000; id += 20) {
+            List<Song> songs = new ArrayList<Song>();
+            for (int i = id; i < id + 20 && i < 3000; i += 2)
+                songs.add(song(i));
+            songManager.removeAll(songs);
+        }
+        playback.join();
+        assertEquals(1500, songManager.size());
+        for (int i = 1; i < played.size(); i++)
+            assertTrue(played.get(i) > played.get(i - 1));
+        for (int id : songManager.getTrackIds())
+            assertEquals(0, id % 2);
+    }
+
+    /**
+     * Build a song manager
+     * 
+     * @param size
+     *            Number of songs
+     * @return Song manager with songs whose track ids are their positions
+     */
+    private static SongManager songManager(int size) {
+        SongManager songManager = new SongManager(new TrackStore(false));
+        List<Song> songs = new ArrayList<Song>();
+        for (int i = 0; i < size; i++)
+            songs.add(song(0));
+        songManager.addAll(songs);
+        return songManager;
+    }
+
+    /**
+     * Build a song
+     * 
+     * @param id
+     *            Track id, for songs to be removed
+     * @return Song
+     */
+    private static Song song(int id) {
+        Song song = TrackStoreTest.song("/music/song.mp3", "Artist", "Album",
+                "Title");
+        song.setId(id);
+        return song;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Columns and dictionaries of {@link TrackStore}
+ * 
+ * @author birelian
+ * 
+ */
+public class TrackStoreTest {
+
+    /**
+     * Every field of a song is kept, on the heap and off it
+     */
+    @Test
+    public void roundTrip() {
+        for (boolean offHeap : new boolean[] { false, true }) {
+            TrackStore store = new TrackStore(offHeap);
+            int id = store.add(song("/music/a.mp3", "Artist", "Album",
+                    "Title"));
+            Song song = store.get(id);
+            assertEquals(id, song.getId());
+            assertEquals("/music/a.mp3", song.getFilePath());
+            assertEquals("Artist", song.getArtist());
+            assertEquals("Album", song.getAlbum());
+            assertEquals("Title", song.getTitle());
+            assertEquals(256, song.getBitRate());
+            assertTrue(song.isVariableBitRate());
+            assertEquals(44100, song.getSampleRate());
+            assertEquals("Stereo", song.getChannels());
+            assertEquals("MPEG-1 Layer 3", song.getFormat());
+            assertEquals(9000, song.getFrames());
+            assertEquals(235, song.getLength());
+            assertEquals("Artist - Title", store.getDisplayName(id));
+        }
+    }
+
+    /**
+     * Repeated strings are stored once and have the same code
+     */
+    @Test
+    public void dictionaries() {
+        TrackStore store = new TrackStore(false);
+        int first = store.add(song("/music/a.mp3", "Artist", "Album", "One"));
+        int second = store.add(song("/music/b.mp3", new String("Artist"),
+                "Other", "Two"));
+        assertSame(store.getArtist(first), store.getArtist(second));
+        assertEquals(store.getArtistCode(first), store.getArtistCode(second));
+        assertEquals(store.getArtistCode(first),
+                store.findArtistCode("Artist"));
+        assertTrue(store.getAlbumCode(first) != store.getAlbumCode(second));
+        assertEquals(-1, store.findAlbumCode("Unknown"));
+    }
+
+    /**
+     * Tracks can be changed and removed, and ids are not reused
+     */
+    @Test
+    public void setAndRemove() {
+        TrackStore store = new TrackStore(false);
+        int first = store.add(song("/music/a.mp3", "Artist", "Album", "One"));
+        store.set(first, song("/music/a.mp3", "New artist", "Album", "One"));
+        assertEquals("New artist", store.getArtist(first));
+        store.remove(first);
+        assertNull(store.getPath(first));
+        assertNull(store.getArtist(first));
+        int second = store.add(song("/music/b.mp3", "Artist", "Album", "Two"));
+        assertTrue(second > first);
+        assertEquals(2, store.size());
+    }
+
+    /**
+     * Columns grow as tracks are added
+     */
+    @Test
+    public void grow() {
+        TrackStore store = new TrackStore(true);
+        for (int i = 0; i < 10000; i++)
+            assertEquals(i, store.add(song("/music/" + i + ".mp3", "Artist "
+                    + i % 10, "Album", "Title " + i)));
+        assertEquals("/music/9999.mp3", store.getPath(9999));
+        assertEquals("Artist 3", store.getArtist(4443));
+    }
+
+    /**
+     * Strings of removed tracks are freed once most tracks are gone, and
+     * their codes are given to new strings. Tracks left keep their ids and
+     * codes
+     */
+    @Test
+    public void compact() {
+        TrackStore store = new TrackStore(false);
+        for (int i = 0; i < 3000; i++)
+            store.add(song("/music/" + i + ".mp3", "Artist " + i, "Album",
+                    "Title " + i));
+        int code = store.getArtistCode(2500);
+        for (int i = 0; i < 1500; i++)
+            store.remove(i);
+        // Removing twice counts once
+        store.remove(0);
+        assertFalse(store.isStale());
+        store.remove(1500);
+        assertTrue(store.isStale());
+        store.compact();
+        assertFalse(store.isStale());
+        assertEquals(-1, store.findArtistCode("Artist 10"));
+        assertEquals(code, store.findArtistCode("Artist 2500"));
+        assertEquals("Title 2999", store.getTitle(2999));
+        int id = store.add(song("/music/new.mp3", "New artist", "Album",
+                "New"));
+        assertEquals(3000, id);
+        assertTrue(store.getArtistCode(id) <= 1500);
+        assertEquals("New artist", store.getArtist(id));
+        assertEquals(store.getArtistCode(id),
+                store.findArtistCode("New artist"));
+        assertEquals("Artist 2500", store.getArtist(2500));
+    }
+
+    /**
+     * Build a song
+     * 
+     * @param path
+     *            File path
+     * @param artist
+     *            Artist
+     * @param album
+     *            Album
+     * @param title
+     *            Title
+     * @return Song
+     */
+    static Song song(String path, String artist, String album, String title) {
+        Song song = new Song();
+        song.setFilePath(path);
+        song.setArtist(artist);
+        song.setAlbum(album);
+        song.setTitle(title);
+        song.setBitRate(256);
+        song.setVariableBitRate(true);
+        song.setSampleRate(44100);
+        song.setChannels("Stereo");
+        song.setFormat("MPEG-1 Layer 3");
+        song.setFrames(9000);
+        song.setLength(235);
+        return song;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2014 Guillermo Bauzá (birelian) - birelianATgmailDOTcom 
+ * 
+ * 
+ * This file is part of WWT-Mp3 player.
+ * 
+ * WWT-Mp3 player is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * WWT-Mp3 player is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with WWT-Mp3 player.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package net.birelian.mp3player.ui;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.birelian.mp3player.core.Song;
+import net.birelian.mp3player.core.SongManager;
+import net.birelian.mp3player.core.TrackStore;
+
+import org.junit.Test;
+
+/**
+ * Rows of {@link PlayListTableModel} while searching
+ * 
+ * @author birelian
+ * 
+ */
+public class PlayListTableModelTest {
+
+    /**
+     * Rows found follow their songs when songs are removed, and removed
+     * songs are no longer shown
+     */
+    @Test
+    public void remapFilter() {
+        SongManager songManager = new SongManager(new TrackStore(false));
+        List<Song> songs = new ArrayList<Song>();
+        for (int i = 0; i < 6; i++) {
+            Song song = new Song();
+            song.setFilePath("/music/" + i + ".mp3");
+            song.setArtist("Artist");
+            song.setTitle("Title " + i);
+            songs.add(song);
+        }
+        songManager.addAll(songs);
+        PlayListTableModel tableModel = new PlayListTableModel(songManager);
+        tableModel.setFilter(new int[] { 1, 3, 5 });
+        songManager.removeAll(Arrays.asList(songManager.getSong(0),
+                songManager.getSong(3)));
+        tableModel.remapFilter();
+        assertEquals(2, tableModel.getRowCount());
+        assertEquals(0, tableModel.getPosition(0));
+        assertEquals(3, tableModel.getPosition(1));
+        assertEquals("Artist - Title 1", tableModel.getValueAt(0, 0));
+        assertEquals("Artist - Title 5", tableModel.getValueAt(1, 0));
+        assertEquals(1, tableModel.getRow(3));
+        assertEquals(-1, tableModel.getRow(1));
+    }
+}
\ No newline at end of file